@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The class that runs the benchmarks.
+ *
+ * <p>It accepts JMH's usual command line (such as a benchmark's regexp,
+ * -f or -wi) and always adds the GC profiler: each benchmark reports its
+ * allocation rate along with its throughput</p>
+ */
+public final class Benchmarks
+{
+    public static void main (String[] args)
+        throws CommandLineOptionException, RunnerException
+    {
+        new Runner (new OptionsBuilder ().
+            parent (new CommandLineOptions (args)).
+            addProfiler (GCProfiler.class).
+            build ()).run ();
+    }
+
+    private Benchmarks () { super(); }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The benchmarks of the writing of errors, to a channel that discards
+ * the bytes: the cost measured is the one of the checking threads,
+ * queuing errors as fast as the writer's thread formats them.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class CSVWriterBenchmark
+{
+    /**
+     * The number of errors of each invocation
+     */
+    private static final int COUNT = 4096;
+
+    @Setup
+    public void setup ()
+    {
+        final Stores stores = Synthetic.stores (Paths.get ("stores"));
+        final Content [] contents = Synthetic.contents (stores, COUNT);
+        // half the files are missing, the other half have a bad size
+        final Checks.ContentsChecker checker = Checks.checker (stores,
+            new Checks.Locator ()
+            {
+                @Override
+                public Checks.Location locate (Path path)
+                {
+                    return (0 == (this.count++ % 2)) ?
+                        Checks.Location.missing (path) :
+                        Checks.Location.found (path, 1L << 30);
+                }
+                private int count;
+            }, Optional.<Hasher>absent ());
+        this.contents = new DecoratedContent [COUNT];
+        this.results = new Checks.Result [COUNT];
+        for (int index = 0; index < COUNT; index++)
+        {
+            final Content content = contents [index];
+            this.contents [index] = DecoratedContent.create (content,
+                Parent.create (content.parent, "document " + index,
+                    "dm_document", true));
+            this.results [index] = checker.apply (this.contents [index]);
+        }
+        this.writer = CSVWriter.create (
+            Channels.newChannel (ByteStreams.nullOutputStream ()), '|');
+    }
+
+    @TearDown
+    public void tearDown ()
+    {
+        this.writer.close ();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void writeError (Blackhole bh)
+    {
+        for (int index = 0; index < COUNT; index++)
+        {
+            this.writer.writeError (
+                this.contents [index], this.results [index]);
+        }
+        bh.consume (this.writer);
+    }
+
+    private DecoratedContent [] contents;
+    private Checks.Result [] results;
+    private CSVWriter writer;
+}
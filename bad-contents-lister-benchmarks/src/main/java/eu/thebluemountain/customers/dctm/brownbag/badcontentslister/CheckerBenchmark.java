@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The benchmarks of the checks of contents, against stores generated in a
+ * temporary directory.
+ *
+ * <p>Files are sparse ones of the contents' size; one content out of
+ * {@link #MISSING} has no file. The file system's cache is warm: the
+ * benchmarks measure the checker's own cost rather than the disk's</p>
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class CheckerBenchmark
+{
+    /**
+     * The number of contents of each invocation
+     */
+    private static final int COUNT = 4096;
+
+    /**
+     * One content out of this number has no file
+     */
+    private static final int MISSING = 10;
+
+    /**
+     * The locator to check with
+     */
+    @Param ({ "probing", "listing" })
+    public String locator;
+
+    @Setup (Level.Trial)
+    public void setup () throws IOException
+    {
+        this.root = Files.createTempDirectory ("stores");
+        final Stores stores = Synthetic.stores (this.root);
+        final Content [] contents = Synthetic.contents (stores, COUNT);
+        final Function <Content, Path> paths = ContentPaths.create (stores);
+        this.contents = new DecoratedContent [COUNT];
+        for (int index = 0; index < COUNT; index++)
+        {
+            final Content content = contents [index];
+            this.contents [index] = DecoratedContent.create (content,
+                Parent.create (content.parent, "", "", false));
+            if (0 == (index % MISSING)) continue;
+            final Path path = paths.apply (content);
+            Files.createDirectories (path.getParent ());
+            try (RandomAccessFile file =
+                 new RandomAccessFile (path.toFile (), "rw"))
+            {
+                file.setLength (content.size);
+            }
+        }
+        this.checker = Checks.checker (stores,
+            "listing".equals (this.locator) ?
+                Checks.listing (64) : Checks.probing (),
+            Optional.<Hasher>absent ());
+    }
+
+    @TearDown (Level.Trial)
+    public void tearDown () throws IOException
+    {
+        Files.walkFileTree (this.root, new SimpleFileVisitor <Path> ()
+        {
+            @Override
+            public FileVisitResult visitFile (
+                Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete (file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory (
+                Path dir, IOException e) throws IOException
+            {
+                Files.delete (dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void check (Blackhole bh)
+    {
+        for (DecoratedContent dc : this.contents)
+        {
+            bh.consume (this.checker.apply (dc));
+        }
+    }
+
+    private Path root;
+    private DecoratedContent [] contents;
+    private Checks.ContentsChecker checker;
+}
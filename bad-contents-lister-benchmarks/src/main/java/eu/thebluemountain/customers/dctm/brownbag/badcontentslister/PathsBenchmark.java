@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.primitives.UnsignedInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The benchmarks of the computation of contents' paths.
+ *
+ * <p>The benchmarks come by pairs, the former computation being a copy of
+ * the code that {@link ContentPaths} replaced:</p>
+ * <ul>
+ * <li>{@code relative} against {@code formerRelative}: the ticket's part
+ * of the relative path</li>
+ * <li>{@code contents} and {@code indexed} against {@code former}: the
+ * full path of a content, from the content or from its store's index</li>
+ * </ul>
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class PathsBenchmark
+{
+    /**
+     * The number of contents of each invocation
+     */
+    private static final int COUNT = 4096;
+
+    @Setup
+    public void setup ()
+    {
+        final Stores stores = Synthetic.stores (Paths.get ("stores"));
+        this.contents = Synthetic.contents (stores, COUNT);
+        this.former = new FormerPathOf (stores);
+        this.paths = ContentPaths.create (stores);
+        this.indexes = new int [COUNT];
+        for (int index = 0; index < COUNT; index++)
+        {
+            this.indexes [index] =
+                stores.indexOf (this.contents [index].store);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void relative (Blackhole bh)
+    {
+        final StringBuilder sb = new StringBuilder (48);
+        for (Content content : this.contents)
+        {
+            sb.setLength (0);
+            bh.consume (Content.pathOf (sb, content.ticket, '/'));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void formerRelative (Blackhole bh)
+    {
+        final StringBuilder sb = new StringBuilder (48);
+        for (Content content : this.contents)
+        {
+            sb.setLength (0);
+            bh.consume (formerPathOf (sb, content.ticket, '/'));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void former (Blackhole bh)
+    {
+        for (Content content : this.contents)
+        {
+            bh.consume (this.former.apply (content));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void contents (Blackhole bh)
+    {
+        for (Content content : this.contents)
+        {
+            bh.consume (this.paths.apply (content));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void indexed (Blackhole bh)
+    {
+        for (int index = 0; index < COUNT; index++)
+        {
+            final Content content = this.contents [index];
+            final Optional <String> extension = content.extension;
+            final Path path = this.paths.of (
+                this.indexes [index], content.ticket, extension);
+            bh.consume (path);
+        }
+    }
+
+    /**
+     * The former {@code Content.pathOf}
+     */
+    private static StringBuilder formerPathOf (
+        StringBuilder sb, int ticket, char sep)
+    {
+        String path = Strings.padStart (
+            UnsignedInteger.fromIntBits (ticket).toString (16), 8, '0');
+        return sb.append (path.charAt (0)).
+            append (path.charAt (1)).
+            append (sep).
+            append (path.charAt (2)).
+            append (path.charAt (3)).
+            append (sep).
+            append (path.charAt (4)).
+            append (path.charAt (5)).
+            append (sep).
+            append (path.charAt (6)).
+            append (path.charAt (7));
+    }
+
+    /**
+     * The former {@code Checks.PathOf}, with its store lookup
+     */
+    private static final class FormerPathOf implements Function <Content, Path>
+    {
+        @Override
+        public Path apply (Content content)
+        {
+            Store store = storeof (content.store);
+            Preconditions.checkNotNull (
+                store, "null store found for content %s", content);
+            String relative = formerPathOf (
+                new StringBuilder (48), content.ticket, File.separatorChar).
+                append (content.extension.or ("")).toString ();
+            return Paths.get (store.path, relative);
+        }
+
+        private Store storeof (String id)
+        {
+            // contents come in store's order: mostly the last store,
+            // whose identifier is the content's one
+            final Store last = this.last;
+            if ((null != last) && (last.id.equals (id)))
+            {
+                return last;
+            }
+            final int index = this.stores.indexOf (id);
+            if (-1 == index) return null;
+            this.last = this.stores.get (index);
+            return this.last;
+        }
+
+        private FormerPathOf (Stores stores)
+        {
+            this.stores = stores;
+        }
+        private final Stores stores;
+        private volatile Store last;
+    }
+
+    private Content [] contents;
+    private FormerPathOf former;
+    private ContentPaths paths;
+    private int [] indexes;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.DCReader;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.JDBCConnection;
+
+/**
+ * The benchmarks of the conversion of rows into contents, from synthetic
+ * result sets: the full rows, the lean rows and the batches of columns.
+ */
+@State (Scope.Thread)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.SECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ReaderBenchmark
+{
+    /**
+     * The number of rows of each invocation
+     */
+    private static final int COUNT = 16384;
+
+    @Setup
+    public void setup () throws SQLException
+    {
+        this.stores = Synthetic.stores (Paths.get ("stores"));
+        this.jdbc = Synthetic.connection (
+            Synthetic.contents (this.stores, COUNT));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void rows (Blackhole bh)
+    {
+        read (bh, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void lean (Blackhole bh)
+    {
+        read (bh, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation (COUNT)
+    public void batches (Blackhole bh)
+    {
+        try (CloseableIterator <ContentBatch> it =
+             DCReader.batches (this.jdbc, this.stores, false, 1024))
+        {
+            while (it.hasNext ())
+            {
+                final ContentBatch batch = it.next ();
+                for (int row = 0; row < batch.size (); row++)
+                {
+                    bh.consume (batch.ticket (row));
+                    bh.consume (batch.size (row));
+                }
+            }
+        }
+    }
+
+    private void read (Blackhole bh, boolean lean)
+    {
+        try (CloseableIterator <DecoratedContent> it =
+             DCReader.reader (this.jdbc, this.stores, false, lean))
+        {
+            while (it.hasNext ())
+            {
+                bh.consume (it.next ());
+            }
+        }
+    }
+
+    private Stores stores;
+    private JDBCConnection jdbc;
+}
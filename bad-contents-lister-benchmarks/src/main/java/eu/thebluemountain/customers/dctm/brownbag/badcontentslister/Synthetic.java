@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.JDBCConnection;
+
+/**
+ * The class that generates the data the benchmarks run against: stores,
+ * contents and a connection whose queries return rows from memory.
+ */
+final class Synthetic
+{
+    /**
+     * The formats of the contents, the first one having an extension
+     */
+    private static final String [] FORMATS = { "pdf", "crtext", "msw8" };
+
+    /**
+     * The method that creates the stores, one with extensions and one
+     * without
+     * @param root is the directory the stores are in
+     * @return the matching stores
+     */
+    static Stores stores (Path root)
+    {
+        return Stores.create (ImmutableSet.of (
+            Store.create ("2800000000000100", "filestore_01",
+                root.resolve ("filestore_01").toString (), true),
+            Store.create ("2800000000000101", "filestore_02",
+                root.resolve ("filestore_02").toString (), false)));
+    }
+
+    /**
+     * The method that creates contents, in store and ticket's order as
+     * read from the docbase
+     * @param stores carries the stores
+     * @param count is the number of contents
+     * @return the matching contents
+     */
+    static Content [] contents (Stores stores, int count)
+    {
+        final Random random = new Random (count);
+        final Content [] contents = new Content [count];
+        final DateTime now = new DateTime (DateTimeZone.UTC);
+        for (int index = 0; index < count; index++)
+        {
+            final Store store = stores.get ((index < (count / 2)) ? 0 : 1);
+            final String format = FORMATS [index % FORMATS.length];
+            final Optional <String> extension =
+                (store.extension && (0 == (index % FORMATS.length))) ?
+                    Optional.of ('.' + format) : Optional.<String>absent ();
+            contents [index] = Content.create (store.id,
+                Integer.MIN_VALUE + (index * 3), parentOf (index), false,
+                format, 0, extension, random.nextInt (1 << 20), now);
+        }
+        return contents;
+    }
+
+    /**
+     * @return the identifier of the parent of a content
+     */
+    private static String parentOf (int index)
+    {
+        return Ids.toString (0x0900000180000000L + index);
+    }
+
+    /**
+     * The method that returns a connection whose queries return the rows
+     * matching contents, whatever the query's condition.
+     *
+     * <p>Rows are returned as the queries of {@code DCReader} expect them,
+     * with or without the parent's columns. The result sets are dynamic
+     * proxies: the same overhead applies to all reading benchmarks</p>
+     * @param contents carries the contents
+     * @return the matching connection
+     * @throws SQLException never
+     */
+    static JDBCConnection connection (final Content [] contents)
+        throws SQLException
+    {
+        final Statement stmt = proxy (Statement.class, new InvocationHandler ()
+        {
+            @Override
+            public Object invoke (Object proxy, Method method, Object [] args)
+            {
+                if ("executeQuery".equals (method.getName ()))
+                {
+                    final String sql = (String) args [0];
+                    if (sql.contains ("dm_format_s"))
+                    {
+                        return resultSet (new Object [][] {
+                            { FORMATS [0], FORMATS [0] }
+                        });
+                    }
+                    return resultSet (rows (
+                        contents, sql.contains ("d.object_name")));
+                }
+                return null;
+            }
+        });
+        final Connection cnx = proxy (Connection.class, new InvocationHandler ()
+        {
+            @Override
+            public Object invoke (Object proxy, Method method, Object [] args)
+            {
+                switch (method.getName ())
+                {
+                    case "createStatement":
+                        return stmt;
+                    case "isClosed":
+                        return false;
+                    default:
+                        return null;
+                }
+            }
+        });
+        return JDBCConnection.create (cnx, "dbo");
+    }
+
+    /**
+     * The method that returns the rows matching contents
+     * @param contents carries the contents
+     * @param parents indicates whether rows carry the parent's columns
+     * @return the rows
+     */
+    private static Object [][] rows (Content [] contents, boolean parents)
+    {
+        final Object [][] rows = new Object [contents.length][];
+        for (int index = 0; index < contents.length; index++)
+        {
+            final Content content = contents [index];
+            final Object [] common = {
+                content.store, content.ticket, content.parent,
+                content.format, content.page, content.rendition ? 1 : 0,
+                content.size, new Timestamp (content.modified.getMillis ())
+            };
+            rows [index] = new Object [parents ? 12 : 9];
+            System.arraycopy (common, 0, rows [index], 0, common.length);
+            if (parents)
+            {
+                rows [index][8] = "document " + index;
+                rows [index][9] = "dm_document";
+                rows [index][10] = 1;
+                rows [index][11] = " ";
+            }
+            else
+            {
+                rows [index][8] = " ";
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The method that returns a forward only result set over rows
+     * @param rows carries the rows
+     * @return the matching result set
+     */
+    private static ResultSet resultSet (final Object [][] rows)
+    {
+        return proxy (ResultSet.class, new InvocationHandler ()
+        {
+            @Override
+            public Object invoke (Object proxy, Method method, Object [] args)
+            {
+                switch (method.getName ())
+                {
+                    case "next":
+                        this.row++;
+                        return this.row < rows.length;
+                    case "getString":
+                    case "getTimestamp":
+                        return rows [this.row][(Integer) args [0] - 1];
+                    case "getInt":
+                        final Object value =
+                            rows [this.row][(Integer) args [0] - 1];
+                        return (null == value) ? 0 : value;
+                    default:
+                        return null;
+                }
+            }
+            private int row = -1;
+        });
+    }
+
+    private static <T> T proxy (Class <T> type, InvocationHandler handler)
+    {
+        return type.cast (Proxy.newProxyInstance (
+            Synthetic.class.getClassLoader (), new Class <?> [] { type },
+            handler));
+    }
+
+    private Synthetic () { super(); }
+}
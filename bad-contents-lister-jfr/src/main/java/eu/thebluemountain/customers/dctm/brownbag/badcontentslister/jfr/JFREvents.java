@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister.jfr;
+
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The events of the lister emitted as Java Flight Recorder events.
+ *
+ * <p>The events are timed, with a thread and a stack trace: JDK Mission
+ * Control then shows their latency by kind, store or outcome as well as
+ * where the time goes. Fetches, probes and listings are only recorded
+ * when they take at least a millisecond, which keeps the overhead low
+ * enough for a recording to stay on; thresholds can be changed from
+ * recording settings, as usual.<br>
+ * When an event is not enabled, its spans do nothing: no event is
+ * created.</p>
+ */
+public final class JFREvents extends Events
+{
+    /**
+     * The base class of the lister's events
+     */
+    @Category ({ "Bad Contents Lister" })
+    @StackTrace (true)
+    abstract static class SpanEvent extends Event implements Events.Span
+    {
+        @Label ("Store")
+        @Description ("The store's identifier")
+        String store;
+
+        @Label ("Ticket")
+        @Description ("The content's ticket")
+        int ticket;
+
+        @Label ("Path")
+        @Description ("The file or directory")
+        String path;
+
+        @Label ("Outcome")
+        @Description ("The outcome, such as the result's code")
+        String outcome;
+
+        @Label ("Count")
+        @Description ("The number of rows, records or files involved")
+        long count;
+
+        @Override
+        public void commit (
+            String store, int ticket, Path path, String outcome, long count)
+        {
+            end ();
+            // the fields are only set for the events to record
+            if (shouldCommit ())
+            {
+                this.store = store;
+                this.ticket = ticket;
+                this.path = (null == path) ? null : path.toString ();
+                this.outcome = outcome;
+                this.count = count;
+                commit ();
+            }
+        }
+    }
+
+    @Name ("eu.thebluemountain.badcontentslister.Fetch")
+    @Label ("Fetch")
+    @Description ("Reading rows from the database")
+    @Threshold ("1 ms")
+    static final class FetchEvent extends SpanEvent { }
+
+    @Name ("eu.thebluemountain.badcontentslister.Probe")
+    @Label ("Probe")
+    @Description ("Checking a content's file")
+    @Threshold ("1 ms")
+    static final class ProbeEvent extends SpanEvent { }
+
+    @Name ("eu.thebluemountain.badcontentslister.Listing")
+    @Label ("Listing")
+    @Description ("Listing a directory for another extension")
+    @Threshold ("1 ms")
+    static final class ListingEvent extends SpanEvent { }
+
+    @Name ("eu.thebluemountain.badcontentslister.Write")
+    @Label ("Write")
+    @Description ("Encoding records into a log")
+    @Threshold ("0 ms")
+    static final class WriteEvent extends SpanEvent { }
+
+    @Name ("eu.thebluemountain.badcontentslister.Flush")
+    @Label ("Flush")
+    @Description ("Writing a log's buffer to its file")
+    @Threshold ("0 ms")
+    static final class FlushEvent extends SpanEvent { }
+
+    @Override
+    public Events.Span begin (Events.Kind kind)
+    {
+        if (! this.types.get (kind).isEnabled ())
+        {
+            return Events.NONE;
+        }
+        final SpanEvent event;
+        switch (kind)
+        {
+            case FETCH:
+                event = new FetchEvent ();
+                break;
+            case PROBE:
+                event = new ProbeEvent ();
+                break;
+            case LISTING:
+                event = new ListingEvent ();
+                break;
+            case WRITE:
+                event = new WriteEvent ();
+                break;
+            default:
+                event = new FlushEvent ();
+                break;
+        }
+        event.begin ();
+        return event;
+    }
+
+    public JFREvents ()
+    {
+        super ();
+        this.types = new EnumMap <> (Events.Kind.class);
+        this.types.put (Events.Kind.FETCH,
+            EventType.getEventType (FetchEvent.class));
+        this.types.put (Events.Kind.PROBE,
+            EventType.getEventType (ProbeEvent.class));
+        this.types.put (Events.Kind.LISTING,
+            EventType.getEventType (ListingEvent.class));
+        this.types.put (Events.Kind.WRITE,
+            EventType.getEventType (WriteEvent.class));
+        this.types.put (Events.Kind.FLUSH,
+            EventType.getEventType (FlushEvent.class));
+    }
+    private final Map <Events.Kind, EventType> types;
+}
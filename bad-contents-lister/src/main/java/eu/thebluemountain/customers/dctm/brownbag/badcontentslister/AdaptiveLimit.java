@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The class that adapts the number of checks in flight to the latency of
+ * the file system.
+ *
+ * <p>Latencies are collected in windows of {@link #WINDOW} checks. At the
+ * end of each window, the 99th percentile of latencies is compared with
+ * the lowest one observed so far (the baseline):
+ * <ul>
+ *  <li>when it exceeds the baseline by {@link #TOLERANCE} times, the
+ *  storage is saturated and the limit decreases by a quarter</li>
+ *  <li>otherwise, while the throughput does not degrade, the limit
+ *  increases by the square root of the limit</li>
+ * </ul>
+ * The baseline slowly drifts upwards so that a single fast window does
+ * not hold the limit down forever.</p>
+ */
+final class AdaptiveLimit implements Pipeline.Limit
+{
+    /**
+     * The number of checks in a window
+     */
+    private static final int WINDOW = 256;
+
+    /**
+     * The ratio to the baseline above which the latency is too high
+     */
+    private static final double TOLERANCE = 2.0d;
+
+    /**
+     * The ratio the baseline drifts by after each window
+     */
+    private static final double DRIFT = 1.02d;
+
+    /**
+     * The method that creates a new adaptive limit
+     * @param initial is the initial limit
+     * @param min is the lowest limit
+     * @param max is the highest limit
+     * @return the matching limit
+     */
+    static AdaptiveLimit create (int initial, int min, int max)
+    {
+        Preconditions.checkArgument (0 < min, "bad min: %s", min);
+        Preconditions.checkArgument (min <= max, "bad max: %s", max);
+        Preconditions.checkArgument (
+            (min <= initial) && (initial <= max), "bad initial: %s", initial);
+        return new AdaptiveLimit (initial, min, max);
+    }
+
+    @Override
+    public void acquire () throws InterruptedException
+    {
+        this.lock.lockInterruptibly ();
+        try
+        {
+            while (this.inflight >= this.limit)
+            {
+                this.available.await ();
+            }
+            this.inflight++;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    @Override
+    public void release (long latency)
+    {
+        this.lock.lock ();
+        try
+        {
+            this.inflight--;
+            this.latencies [this.index++] = latency;
+            if (WINDOW == this.index)
+            {
+                adapt ();
+                this.index = 0;
+            }
+            // the producer is the only thread waiting
+            this.available.signal ();
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * The method that returns the current limit
+     * @return the limit
+     */
+    int limit ()
+    {
+        this.lock.lock ();
+        try
+        {
+            return this.limit;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * The method that returns the 99th percentile of latencies in the last
+     * window
+     * @return the latency, in nanoseconds; 0 if no window is over yet
+     */
+    long p99 ()
+    {
+        this.lock.lock ();
+        try
+        {
+            return this.p99;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    private void adapt ()
+    {
+        final long now = System.nanoTime ();
+        final long [] sorted = this.latencies.clone ();
+        Arrays.sort (sorted);
+        this.p99 = sorted [(WINDOW * 99) / 100];
+        // checks per second
+        final double throughput =
+            (WINDOW * 1e9d) / Math.max (1L, now - this.started);
+        this.started = now;
+        if ((0L == this.baseline) || (this.p99 < this.baseline))
+        {
+            this.baseline = Math.max (1L, this.p99);
+        }
+        if (this.p99 > (this.baseline * TOLERANCE))
+        {
+            this.limit = Math.max (this.min, (this.limit * 3) / 4);
+        }
+        else if (throughput >= (this.throughput * 0.95d))
+        {
+            final int step = Math.max (1, (int) Math.sqrt (this.limit));
+            this.limit = Math.min (this.max, this.limit + step);
+        }
+        this.throughput = throughput;
+        this.baseline = (long) Math.ceil (this.baseline * DRIFT);
+    }
+
+    private AdaptiveLimit (int initial, int min, int max)
+    {
+        this.limit = initial;
+        this.min = min;
+        this.max = max;
+        this.latencies = new long [WINDOW];
+        this.lock = new ReentrantLock ();
+        this.available = this.lock.newCondition ();
+        this.started = System.nanoTime ();
+    }
+    private int limit;
+    private int inflight;
+    private int index; // the index of the next latency in the window
+    private long started; // when the current window started
+    private long baseline;
+    private long p99;
+    private double throughput; // the throughput of the previous window
+    private final int min;
+    private final int max;
+    private final long [] latencies;
+    private final ReentrantLock lock;
+    private final Condition available;
+}
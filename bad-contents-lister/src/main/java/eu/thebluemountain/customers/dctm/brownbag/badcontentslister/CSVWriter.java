@@ -17,20 +17,155 @@
 package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
 
 import java.io.Closeable;
-import java.io.PrintWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.base.Preconditions;
 
 /**
- * The class that writes a CSV file
+ * The class that writes a CSV file.
+ *
+ * <p>Lines are written by a thread of its own: writing a line consists in
+ * queuing a record, the writer thread encoding records by batches into
+ * a large buffer that is flushed when full, when records have been waiting
+ * for long enough, when requested and when closing. The queue is lock-free:
+ * the checking threads never wait for the file, unless the writer lags too
+ * far behind.<br>
+ * Lines are encoded as UTF-8; separators, backslashes and line breaks in
+ * free text fields (such as the parents' names) are escaped with a
+ * backslash.<br>
+ * Records queued are written even on abnormal exit: a shutdown hook drains
+ * the queue if the writer is not closed. Queuing a record and closing are
+ * exclusive (queuing threads share a read lock): a record is either queued
+ * before closing, and then written, or rejected.</p>
  */
-final class CSVWriter implements Closeable
+final class CSVWriter implements Closeable, Flushable
 {
-    static CSVWriter create (PrintWriter printer, char separator)
+    /**
+     * The size of the buffer, in bytes
+     */
+    private static final int BUFFER = 1 << 20;
+
+    /**
+     * The max number of records queued before writers wait
+     */
+    private static final int PENDING = 1 << 16;
+
+    /**
+     * The number of records queued that wakes the writer thread up
+     */
+    private static final int BATCH = 1024;
+
+    /**
+     * The max time a record waits before being flushed, in nanoseconds
+     */
+    private static final long LATENCY = TimeUnit.SECONDS.toNanos (1L);
+
+    /**
+     * The method that creates a new writer, starting its thread
+     * @param out is the channel to write lines to, closed with the writer
+     * @param separator is the fields' separator, an ASCII character
+     * @return the matching writer
+     */
+    static CSVWriter create (WritableByteChannel out, char separator)
+    {
+        Preconditions.checkNotNull (out);
+        final CSVWriter writer = new CSVWriter (
+            TextEncoder.create (out, BUFFER, separator));
+        writer.thread.start ();
+        Runtime.getRuntime ().addShutdownHook (writer.hook);
+        return writer;
+    }
+
+    /**
+     * The record to write
+     */
+    private static abstract class Record
     {
-        Preconditions.checkNotNull (printer);
-        return new CSVWriter (printer, separator);
+        /**
+         * The method that encodes the record's line
+         * @param out is the encoder
+         * @throws IOException when writing the encoder's buffer
+         */
+        abstract void encode (TextEncoder out) throws IOException;
+    }
+
+    /**
+     * The record of an error
+     */
+    private static final class Error extends Record
+    {
+        @Override
+        void encode (TextEncoder out) throws IOException
+        {
+            encodeError (out, this.dc, this.result);
+        }
+        private Error (DecoratedContent dc, Checks.Result result)
+        {
+            this.dc = dc;
+            this.result = result;
+        }
+        private final DecoratedContent dc;
+        private final Checks.Result result;
     }
+
+    /**
+     * The record of a file's digest
+     */
+    private static final class Digest extends Record
+    {
+        @Override
+        void encode (TextEncoder out) throws IOException
+        {
+            encodeDigest (out, this.dc, this.result);
+        }
+        private Digest (DecoratedContent dc, Checks.Result.Digest result)
+        {
+            this.dc = dc;
+            this.result = result;
+        }
+        private final DecoratedContent dc;
+        private final Checks.Result.Digest result;
+    }
+
+    /**
+     * The record of an orphan file
+     */
+    private static final class Orphan extends Record
+    {
+        @Override
+        void encode (TextEncoder out) throws IOException
+        {
+            encodeOrphan (out, this.store, this.orphan);
+        }
+        private Orphan (Store store, OrphansFinder.Orphan orphan)
+        {
+            this.store = store;
+            this.orphan = orphan;
+        }
+        private final Store store;
+        private final OrphansFinder.Orphan orphan;
+    }
+
+    /**
+     * The record that requests the lines written so far to be flushed
+     */
+    private static final class Flush extends Record
+    {
+        @Override
+        void encode (TextEncoder out) { }
+        private final CountDownLatch done = new CountDownLatch (1);
+    }
+
     /**
      * The method that writes the (CSV like) line matching an error
      * @param dc is the content
@@ -40,65 +175,348 @@ final class CSVWriter implements Closeable
     {
         Preconditions.checkNotNull (dc, "null dc supplied");
         Preconditions.checkNotNull (result, "null result supplied");
-        final Checks.Code code = result.code;
-        String error;
-        switch (code)
+        if (Checks.Code.OK == result.code) return;
+        offer (new Error (dc, result));
+    }
+
+    /**
+     * The method that encodes the line matching an error
+     */
+    private static void encodeError (
+        TextEncoder out, DecoratedContent dc, Checks.Result result)
+        throws IOException
+    {
+        out.ascii (dc.parent.id).separator ().
+            text (dc.parent.name).separator ().
+            text (dc.parent.type).separator ().
+            bool (dc.parent.current).separator ().
+            text (dc.content.format).separator ().
+            bool (dc.content.rendition).separator ().
+            number (dc.content.page).separator ().
+            instant (dc.content.modified.getMillis ()).separator ().
+            text (dc.content.extension.or ("")).separator ().
+            number (dc.content.size).separator ().
+            number (dc.content.ticket).separator ().
+            ascii (result.code.name ()).separator ().
+            text (result.path.toString ()).separator ();
+        switch (result.code)
         {
-            case OK:
-                return;
             case NOTFOUND:
-                error = "content not found";
+                out.ascii ("content not found");
                 break;
             case EMPTYNOTFOUND:
-                error = "content not found but was empty !";
+                out.ascii ("content not found but was empty !");
                 break;
             case ERROR:
-                error = "error accessing the content: " +
-                    Checks.Result.SizeError.class.cast (result).
-                        e.getMessage ();
+                out.ascii ("error accessing the content: ").text (
+                    String.valueOf (Checks.Result.SizeError.class.cast (
+                        result).e.getMessage ()));
                 break;
             case BADSIZE:
-                error = "bad size (" +
-                    Checks.Result.Size.class.cast (result).actual +
-                    ") when expecting " + dc.content.size + " bytes";
+                out.ascii ("bad size (").number (
+                    Checks.Result.Size.class.cast (result).actual).
+                    ascii (") when expecting ").number (dc.content.size).
+                    ascii (" bytes");
                 break;
             case EMPTY:
-                error = "empty size when expecting " +
-                    dc.content.size + " bytes";
+                out.ascii ("empty size when expecting ").
+                    number (dc.content.size).ascii (" bytes");
+                break;
+            case BADHASH:
+                out.ascii ("bad digest (").ascii (
+                    Checks.Result.BadHash.class.cast (result).actual).
+                    ascii (") when expecting ").
+                    ascii (dc.content.hash.or (""));
                 break;
             default:
-                error = "!!! unhandled Code case";
+                out.ascii ("!!! unhandled Code case");
                 break;
         }
+        out.newLine ();
+    }
 
-        StringBuilder sb = new StringBuilder ().
-            append (dc.parent.id).append (this.separator).
-            append (dc.parent.name).append (this.separator).
-            append (dc.parent.type).append (this.separator).
-            append (dc.parent.current).append (this.separator).
-            append (dc.content.format).append (this.separator).
-            append (dc.content.rendition).append (this.separator).
-            append (dc.content.page).append (this.separator).
-            append (dc.content.modified).append (this.separator).
-            append (dc.content.extension.or ("")).append (this.separator).
-            append (dc.content.size).append (this.separator).
-            append (dc.content.ticket).append (this.separator).
-            append (result.code).append (this.separator).
-            append (result.path).append (this.separator).
-            append (error);
-        this.printer.println (sb.toString ());
-        this.printer.flush ();
+    /**
+     * The method that writes the (CSV like) line matching a file's digest
+     * @param dc is the content
+     * @param result is the result carrying the file's digest
+     */
+    public void writeDigest (DecoratedContent dc, Checks.Result.Digest result)
+    {
+        Preconditions.checkNotNull (dc, "null dc supplied");
+        Preconditions.checkNotNull (result, "null result supplied");
+        offer (new Digest (dc, result));
+    }
+
+    /**
+     * The method that encodes the line matching a file's digest
+     */
+    private static void encodeDigest (
+        TextEncoder out, DecoratedContent dc, Checks.Result.Digest result)
+        throws IOException
+    {
+        out.ascii (dc.content.store).separator ().
+            number (dc.content.ticket).separator ().
+            number (dc.content.size).separator ().
+            ascii (result.digest).separator ().
+            text (result.path.toString ()).newLine ();
     }
+
+    /**
+     * The method that writes the (CSV like) line matching an orphan file
+     * @param store is the store the file was found in
+     * @param orphan is the file no content refers to
+     */
+    public void writeOrphan (Store store, OrphansFinder.Orphan orphan)
+    {
+        Preconditions.checkNotNull (store, "null store supplied");
+        Preconditions.checkNotNull (orphan, "null orphan supplied");
+        offer (new Orphan (store, orphan));
+    }
+
+    /**
+     * The method that encodes the line matching an orphan file
+     */
+    private static void encodeOrphan (
+        TextEncoder out, Store store, OrphansFinder.Orphan orphan)
+        throws IOException
+    {
+        out.ascii (store.id).separator ().
+            text (store.name).separator ();
+        if (-1L != orphan.ticket)
+        {
+            out.number ((int) orphan.ticket);
+        }
+        out.separator ().
+            number (orphan.size).separator ().
+            instant (orphan.modified).separator ().
+            text (orphan.path.toString ()).newLine ();
+    }
+
+    /**
+     * The method that waits until the lines written so far are flushed to
+     * the file, such as before recording the file's length
+     * @throws IllegalStateException if writing failed
+     */
     @Override
-    public void close ()
+    public void flush () throws IllegalStateException
+    {
+        final Flush flush = new Flush ();
+        offer (flush);
+        LockSupport.unpark (this.thread);
+        try
+        {
+            while (! flush.done.await (LATENCY, TimeUnit.NANOSECONDS))
+            {
+                check ();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+            throw new IllegalStateException (e);
+        }
+        check ();
+    }
+
+    @Override
+    public void close () throws IllegalStateException
+    {
+        this.lock.writeLock ().lock ();
+        try
+        {
+            if (this.closed) return;
+            // no record is queued from now on: the writer drains them all
+            this.closed = true;
+        }
+        finally
+        {
+            this.lock.writeLock ().unlock ();
+        }
+        LockSupport.unpark (this.thread);
+        try
+        {
+            this.thread.join ();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+            throw new IllegalStateException (e);
+        }
+        try
+        {
+            Runtime.getRuntime ().removeShutdownHook (this.hook);
+        }
+        catch (IllegalStateException e)
+        {
+            // shutting down already
+        }
+        check ();
+    }
+
+    /**
+     * The method that queues a record, waiting if the writer lags too far
+     * behind
+     * @param record is the record
+     * @throws IllegalStateException if writing failed or closed
+     */
+    private void offer (Record record) throws IllegalStateException
     {
-        this.printer.close ();
+        check ();
+        Preconditions.checkState (! this.closed, "writer closed");
+        while (PENDING <= this.pending.get ())
+        {
+            LockSupport.unpark (this.thread);
+            LockSupport.parkNanos (TimeUnit.MILLISECONDS.toNanos (1L));
+            check ();
+        }
+        this.lock.readLock ().lock ();
+        try
+        {
+            // closed meanwhile: the writer may be done draining
+            Preconditions.checkState (! this.closed, "writer closed");
+            this.records.offer (record);
+        }
+        finally
+        {
+            this.lock.readLock ().unlock ();
+        }
+        if (BATCH == this.pending.incrementAndGet ())
+        {
+            LockSupport.unpark (this.thread);
+        }
     }
-    private CSVWriter (PrintWriter printer, char separactor)
+
+    /**
+     * The method that rethrows the failure of the writer thread if any
+     * @throws IllegalStateException if writing failed
+     */
+    private void check () throws IllegalStateException
     {
-        this.printer = printer;
-        this.separator = separactor;
+        final Throwable failure = this.failure;
+        if (null != failure)
+        {
+            throw new IllegalStateException ("failed writing", failure);
+        }
+    }
+
+    /**
+     * The task of the writer thread
+     */
+    private final class Drain implements Runnable
+    {
+        @Override
+        public void run ()
+        {
+            try
+            {
+                long flushed = System.nanoTime ();
+                boolean dirty = false; // whether lines are not flushed
+                while (true)
+                {
+                    // read before draining: no record is left behind
+                    final boolean closed = CSVWriter.this.closed;
+                    Events.Span span = Events.NONE;
+                    long written = 0L;
+                    Record record;
+                    while (null != (record = CSVWriter.this.records.poll ()))
+                    {
+                        CSVWriter.this.pending.decrementAndGet ();
+                        if (record instanceof Flush)
+                        {
+                            flush ();
+                            dirty = false;
+                            flushed = System.nanoTime ();
+                            ((Flush) record).done.countDown ();
+                            continue;
+                        }
+                        if (0L == written)
+                        {
+                            span = Events.get ().begin (Events.Kind.WRITE);
+                        }
+                        record.encode (this.out);
+                        written++;
+                        dirty = true;
+                    }
+                    span.commit (null, 0, null, "written", written);
+                    if (closed)
+                    {
+                        this.out.close ();
+                        return;
+                    }
+                    if ((dirty) && (LATENCY <= System.nanoTime () - flushed))
+                    {
+                        flush ();
+                        dirty = false;
+                        flushed = System.nanoTime ();
+                    }
+                    LockSupport.parkNanos (LATENCY / 4);
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                CSVWriter.this.failure = e;
+                // releases the threads waiting for a flush
+                Record record;
+                while (null != (record = CSVWriter.this.records.poll ()))
+                {
+                    CSVWriter.this.pending.decrementAndGet ();
+                    if (record instanceof Flush)
+                    {
+                        ((Flush) record).done.countDown ();
+                    }
+                }
+                try
+                {
+                    this.out.close ();
+                }
+                catch (IOException ignored)
+                {
+                    // the first failure is the one reported
+                }
+            }
+        }
+
+        /**
+         * The method that writes the encoded lines, emitting the flush's
+         * event
+         * @throws IOException if writing fails
+         */
+        private void flush () throws IOException
+        {
+            final Events.Span span = Events.get ().begin (Events.Kind.FLUSH);
+            this.out.flush ();
+            span.commit (null, 0, null, "flushed", 0L);
+        }
+
+        private Drain (TextEncoder out)
+        {
+            this.out = out;
+        }
+        private final TextEncoder out;
+    }
+
+    private CSVWriter (TextEncoder out)
+    {
+        this.records = new ConcurrentLinkedQueue <> ();
+        this.pending = new AtomicInteger ();
+        this.lock = new ReentrantReadWriteLock ();
+        this.thread = new Thread (new Drain (out), "csv-writer");
+        this.thread.setDaemon (true);
+        this.hook = new Thread (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                // abnormal exit: writes the records queued so far
+                CSVWriter.this.close ();
+            }
+        }, "csv-writer-hook");
     }
-    private final char separator;
-    private final PrintWriter printer;
+    private final Queue <Record> records;
+    private final AtomicInteger pending; // the number of records queued
+    private final ReadWriteLock lock; // queuing (read) vs closing (write)
+    private final Thread thread;
+    private final Thread hook;
+    private volatile boolean closed;
+    private volatile Throwable failure;
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * The class that carries the progress of a scan, so that it can be resumed.
+ *
+ * <p>Contents are read in store and ticket's order: the checkpoint records
+ * the last key (store and ticket) whose contents are all checked, the
+ * statistics so far and the length of the logs at that time. Resuming a
+ * scan then consists in truncating the logs to these lengths and reading
+ * the contents after that key.<br>
+ * The checkpoint is saved as a properties file, replaced atomically.</p>
+ */
+public final class Checkpoint
+{
+    /**
+     * The class that carries a log file and its length
+     */
+    public static final class Log
+    {
+        /**
+         * The log file's absolute path
+         */
+        public final String path;
+
+        /**
+         * The log file's length
+         */
+        public final long length;
+
+        private Log (String path, long length)
+        {
+            this.path = path;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The identifier of the last store whose contents are checked
+     */
+    public final String store;
+
+    /**
+     * The last ticket whose contents are checked, in the store
+     */
+    public final int ticket;
+
+    /**
+     * The results of the checks so far
+     */
+    public final ImmutableMultiset <Checks.Code> codes;
+
+    /**
+     * The log of errors
+     */
+    public final Log errors;
+
+    /**
+     * The log of digests if any
+     */
+    public final Optional <Log> digests;
+
+    /**
+     * The method that reads a checkpoint
+     * @param file is the checkpoint file
+     * @return the checkpoint; absent if there is no such file
+     * @throws IOException when reading the file
+     */
+    public static Optional <Checkpoint> read (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        final Properties props = new Properties ();
+        try (InputStream in = Files.newInputStream (file))
+        {
+            props.load (in);
+        }
+        catch (NoSuchFileException e)
+        {
+            return Optional.absent ();
+        }
+        try
+        {
+            ImmutableMultiset.Builder <Checks.Code> codes =
+                ImmutableMultiset.builder ();
+            for (Checks.Code code : EnumSet.allOf (Checks.Code.class))
+            {
+                String count = props.getProperty ("code." + code.name ());
+                if (null != count)
+                {
+                    codes.addCopies (code, Integer.parseInt (count));
+                }
+            }
+            Optional <Log> digests = Optional.absent ();
+            if (null != props.getProperty ("digests"))
+            {
+                digests = Optional.of (new Log (
+                    props.getProperty ("digests"),
+                    Long.parseLong (props.getProperty ("digests.length"))));
+            }
+            return Optional.of (new Checkpoint (
+                Preconditions.checkNotNull (props.getProperty ("store")),
+                Integer.parseInt (props.getProperty ("ticket")),
+                codes.build (),
+                new Log (Preconditions.checkNotNull (
+                    props.getProperty ("errors")),
+                    Long.parseLong (props.getProperty ("errors.length"))),
+                digests));
+        }
+        catch (NullPointerException | IllegalArgumentException e)
+        {
+            throw new IOException ("bad checkpoint file " + file, e);
+        }
+    }
+
+    /**
+     * The method that saves the checkpoint.
+     *
+     * <p>It is written to a temporary file, synced to the disk and moved
+     * over the previous one: the file is either the previous checkpoint or
+     * the new one, never a partial one</p>
+     * @param file is the checkpoint file
+     * @throws IOException when writing the file
+     */
+    public void write (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        final Properties props = new Properties ();
+        props.setProperty ("store", this.store);
+        props.setProperty ("ticket", Integer.toString (this.ticket));
+        for (Multiset.Entry <Checks.Code> entry : this.codes.entrySet ())
+        {
+            props.setProperty ("code." + entry.getElement ().name (),
+                Integer.toString (entry.getCount ()));
+        }
+        props.setProperty ("errors", this.errors.path);
+        props.setProperty (
+            "errors.length", Long.toString (this.errors.length));
+        if (this.digests.isPresent ())
+        {
+            props.setProperty ("digests", this.digests.get ().path);
+            props.setProperty ("digests.length",
+                Long.toString (this.digests.get ().length));
+        }
+        final Path tmp = file.resolveSibling (file.getFileName () + ".tmp");
+        try (FileOutputStream out = new FileOutputStream (tmp.toFile ()))
+        {
+            props.store (out, "bad-contents-lister checkpoint");
+            out.getFD ().sync ();
+        }
+        try
+        {
+            Files.move (tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move (tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public String toString ()
+    {
+        return MoreObjects.toStringHelper (this).
+            add ("store", this.store).
+            add ("ticket", this.ticket).
+            add ("count", this.codes.size ()).
+            add ("errors", this.errors.path).
+            toString ();
+    }
+
+    /**
+     * The method that returns the tracker saving checkpoints of a scan
+     * @param file is the checkpoint file
+     * @param resumed is the checkpoint the scan resumes from if any
+     * @param errors is the log of errors
+     * @param digests is the log of digests if any
+     * @param writers carries the writers of the logs, flushed before the
+     *                logs' length is recorded
+     * @return the matching tracker
+     */
+    static Tracker track (
+        Path file, Optional <Checkpoint> resumed, File errors,
+        Optional <File> digests, Iterable <? extends Flushable> writers)
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        Preconditions.checkNotNull (resumed, "null resumed supplied");
+        Preconditions.checkNotNull (errors, "null errors supplied");
+        Preconditions.checkNotNull (digests, "null digests supplied");
+        Preconditions.checkNotNull (writers, "null writers supplied");
+        return new Tracker (
+            file, resumed, errors, digests, ImmutableList.copyOf (writers));
+    }
+
+    /**
+     * The class that saves checkpoints as contents get checked.
+     *
+     * <p>It is notified of each content before the content's result is
+     * accounted for: when the content's key differs from the previous one,
+     * all contents of the previous key are checked. A checkpoint is then
+     * saved if the last one is old enough</p>
+     */
+    static final class Tracker
+    {
+        /**
+         * The min time between checkpoints, in nanoseconds
+         */
+        private static final long INTERVAL = TimeUnit.SECONDS.toNanos (10L);
+
+        /**
+         * The checkpoint the scan resumes from if any
+         */
+        final Optional <Checkpoint> resumed;
+
+        /**
+         * The method that is notified of a content, before its result is
+         * accounted for and logged
+         * @param content is the content
+         * @param codes carries the results so far
+         */
+        void accept (Content content, CodeCounters codes)
+        {
+            if ((null != this.store) &&
+                ((this.ticket != content.ticket) ||
+                    (! this.store.equals (content.store))) &&
+                (INTERVAL <= (System.nanoTime () - this.saved)))
+            {
+                save (codes);
+            }
+            this.store = content.store;
+            this.ticket = content.ticket;
+        }
+
+        /**
+         * The method that is notified that all contents are checked: the
+         * checkpoint is then removed
+         */
+        void finish ()
+        {
+            try
+            {
+                Files.deleteIfExists (this.file);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException (e);
+            }
+        }
+
+        private void save (CodeCounters codes)
+        {
+            try
+            {
+                // the lines logged so far are then part of the logs' length
+                for (Flushable writer : this.writers)
+                {
+                    writer.flush ();
+                }
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException (e);
+            }
+            Optional <Log> digested = Optional.absent ();
+            if (this.digests.isPresent ())
+            {
+                final File log = this.digests.get ();
+                digested = Optional.of (
+                    new Log (log.getPath (), log.length ()));
+            }
+            final Checkpoint checkpoint = new Checkpoint (
+                this.store, this.ticket, codes.snapshot (),
+                new Log (this.errors.getPath (), this.errors.length ()),
+                digested);
+            try
+            {
+                checkpoint.write (this.file);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException (e);
+            }
+            this.saved = System.nanoTime ();
+        }
+
+        private Tracker (
+            Path file, Optional <Checkpoint> resumed, File errors,
+            Optional <File> digests, ImmutableList <Flushable> writers)
+        {
+            this.file = file;
+            this.resumed = resumed;
+            this.errors = errors;
+            this.digests = digests;
+            this.writers = writers;
+            this.saved = System.nanoTime ();
+        }
+        private final Path file;
+        private final File errors;
+        private final Optional <File> digests;
+        private final ImmutableList <Flushable> writers;
+        private String store; // the store of the last content
+        private int ticket; // the ticket of the last content
+        private long saved; // when the last checkpoint was saved
+    }
+
+    private Checkpoint (
+        String store, int ticket, ImmutableMultiset <Checks.Code> codes,
+        Log errors, Optional <Log> digests)
+    {
+        this.store = store;
+        this.ticket = ticket;
+        this.codes = codes;
+        this.errors = errors;
+        this.digests = digests;
+    }
+}
@@ -20,12 +20,24 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Sets;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
 
 /**
  * The class provides a function that check at the content and returns
@@ -38,7 +50,7 @@ public final class Checks
      */
     public enum Code
     {
-        OK, NOTFOUND, EMPTYNOTFOUND, BADSIZE, EMPTY, ERROR
+        OK, NOTFOUND, EMPTYNOTFOUND, BADSIZE, EMPTY, ERROR, BADHASH
     }
 
     public static abstract class Result
@@ -183,6 +195,62 @@ public final class Checks
 //            }
 //        }
 
+        /**
+         * The class of use when the file is OK and its digest was computed
+         */
+        public static final class Digest extends Result
+        {
+            /**
+             * The file's digest
+             */
+            public final String digest;
+
+            @Override
+            public String toString ()
+            {
+                return "Result {code: " + this.code +
+                    ", path: " + this.path +
+                    ", digest: " + this.digest + "}";
+            }
+            private Digest (Path path, String digest)
+            {
+                super (Code.OK, path);
+                this.digest = digest;
+            }
+        }
+
+        /**
+         * The class of use when the file's digest does not match the
+         * content's hash
+         */
+        public static final class BadHash extends Result
+        {
+            /**
+             * The expected hash
+             */
+            public final String expected;
+
+            /**
+             * The actual digest
+             */
+            public final String actual;
+
+            @Override
+            public String toString ()
+            {
+                return "Result {code: " + this.code +
+                    ", path: " + this.path +
+                    ", expected: " + this.expected +
+                    ", actual: " + this.actual + "}";
+            }
+            private BadHash (Path path, String expected, String actual)
+            {
+                super (Code.BADHASH, path);
+                this.expected = expected;
+                this.actual = actual;
+            }
+        }
+
         /**
          * The class of use when an error occurs attempting to read file size
          */
@@ -232,74 +300,144 @@ public final class Checks
     }
 
     /**
-     * The function that performs the check
+     * The class that carries the file located for a content
      */
-    public static final class ContentsChecker
-        implements Function <DecoratedContent, Result>
+    public static final class Location
     {
-        private static final class CheckedPath
+        /**
+         * The method that returns the location of a missing file
+         * @param path is the expected path
+         * @return the matching location
+         */
+        public static Location missing (Path path)
         {
-            final Path path;
-            final boolean found;
-            private CheckedPath (Path path, boolean found)
-            {
-                this.path = path;
-                this.found = found;
-            }
-            private CheckedPath (Path path)
-            {
-                this.path = path;
-                this.found = true;
-            }
+            return new Location (
+                Preconditions.checkNotNull (path), false, -1L, null);
+        }
+
+        /**
+         * The method that returns the location of an existing file
+         * @param path is the actual path, possibly with another extension
+         * @param size is the actual size
+         * @return the matching location
+         */
+        public static Location found (Path path, long size)
+        {
+            Preconditions.checkArgument (0L <= size, "bad size: %s", size);
+            return new Location (
+                Preconditions.checkNotNull (path), true, size, null);
+        }
+
+        /**
+         * The method that returns the location of a file whose attributes
+         * could not be read
+         * @param path is the path
+         * @param error is the error
+         * @return the matching location
+         */
+        public static Location failed (Path path, IOException error)
+        {
+            return new Location (
+                Preconditions.checkNotNull (path), true, -1L,
+                Preconditions.checkNotNull (error));
         }
+
+        /**
+         * The path of the file
+         */
+        public final Path path;
+
+        /**
+         * Whether the file was found
+         */
+        public final boolean found;
+
+        /**
+         * The actual size of the file; -1 if unknown
+         */
+        public final long size;
+
+        /**
+         * The error reading the file's attributes if any
+         */
+        public final IOException error;
+
         @Override
-        public Result apply (DecoratedContent dc)
+        public String toString ()
+        {
+            return "Location {path: " + this.path +
+                ", found: " + this.found +
+                ", size: " + this.size +
+                ", error: " + this.error + "}";
+        }
+
+        private Location (
+            Path path, boolean found, long size, IOException error)
+        {
+            this.path = path;
+            this.found = found;
+            this.size = size;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The interface for classes that locate the file matching a content.
+     *
+     * <p>The file may exist with another extension or with no extension:
+     * implementations then returns the last modified one.<br>
+     * Implementations are expected to be thread-safe</p>
+     */
+    public interface Locator
+    {
+        /**
+         * The method that locates the file
+         * @param path is the expected path
+         * @return the matching location
+         */
+        Location locate (Path path);
+    }
+
+    /**
+     * The locator that probes the file system for each file
+     */
+    private static final class ProbingLocator implements Locator
+    {
+        @Override
+        public Location locate (Path path)
         {
-            CheckedPath cpath = pathOf (dc.content);
-            if (! cpath.found)
+            Path actual = pathOf (path);
+            if (null == actual)
             {
-                if (0 == dc.content.size)
-                {
-                    return new Result.EmptyNotFound (cpath.path);
-                }
-                return new Result.NotFound (cpath.path);
+                return Location.missing (path);
             }
-
-            final Path path = cpath.path;
             try
             {
-                long actual = Files.size (path);
-                if (dc.content.size != actual)
-                {
-                    if (0L == actual)
-                    {
-                        return new Result.Empty (path, dc.content.size);
-                    }
-                    return new Result.Size (path, dc.content.size, actual);
-                }
-                return Result.OK;
+                return Location.found (actual, Files.size (actual));
             }
             catch (IOException e)
             {
-                return new Result.SizeError (path, e);
+                return Location.failed (actual, e);
             }
         }
 
-        private CheckedPath pathOf (Content content)
+        /**
+         * The method that returns the actual path of the file
+         * @param path is the expected path
+         * @return the actual path; {@code null} if not found
+         */
+        private static Path pathOf (Path path)
         {
-            final Path path = this.path.apply (content);
-            assert path != null;
             if (Files.exists (path))
             {
-                return new CheckedPath (path);
+                return path;
             }
             // OK, the file does not exists ...
             // but possibly exists with another extension or
             // with no extension
             final String name = path.getFileName ().toString ();
-            int ext = name.lastIndexOf ('.');
             // files should share same base name as the match
-            final String match = (-1 == ext) ? name : name.substring (0, ext);
+            final String match = baseOf (name);
             // will help select eligible files ...
             FileFilter filter = new FileFilter ()
             {
@@ -312,23 +450,25 @@ public final class Checks
                     // looking for something different that original one
                     if (fname.equals (name)) return false;
                     // OK, build the base name ...
-                    int dot = fname.lastIndexOf ('.');
-                    final String base =
-                        (-1 == dot) ? fname : fname.substring (0, dot);
-                    return base.equals (match);
+                    return baseOf (fname).equals (match);
                 }
             };
             final File dir = path.getParent ().toFile ();
+            final Events.Span span =
+                Events.get ().begin (Events.Kind.LISTING);
             File [] files = dir.listFiles (filter);
-            final int count = files.length;
+            // no directory at all ... nothing found
+            final int count = (null == files) ? 0 : files.length;
+            span.commit (null, 0, dir.toPath (),
+                (null == files) ? "no directory" : "listed", count);
             if (0 == count)
             {
-                // nothing found: returns the original one
-                return new CheckedPath (path, false);
+                // nothing found
+                return null;
             }
             else if (1 == count)
             {
-                return new CheckedPath (files [0].toPath ());
+                return files [0].toPath ();
             }
             // get the last modified one
             File found = null;
@@ -343,51 +483,347 @@ public final class Checks
                 }
             }
             assert found != null;
-            return new CheckedPath (found.toPath ());
+            return found.toPath ();
         }
+    }
 
-        private ContentsChecker (Function <Content, Path> path)
+    /**
+     * The locator that reads each (leaf) directory once.
+     *
+     * <p>As contents are read in ticket's order, all contents of a given
+     * directory are checked consecutively: the locator keeps the listing of
+     * the few last directories, the older ones being evicted as soon as
+     * contents from next directories are checked</p>
+     */
+    private static final class ListingLocator implements Locator
+    {
+        @Override
+        public Location locate (Path path)
         {
-            this.path = path;
+            try
+            {
+                return this.listings.get (path.getParent ()).locate (path);
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause ();
+                if (cause instanceof IOException)
+                {
+                    return Location.failed (path, (IOException) cause);
+                }
+                throw Throwables.propagate (cause);
+            }
         }
-        private final Function <Content, Path> path;
+
+        private ListingLocator (
+            int directories, final Optional <Metrics> metrics)
+        {
+            this.listings = CacheBuilder.newBuilder ().
+                maximumSize (directories).
+                build (new CacheLoader <Path, Listing> ()
+                {
+                    @Override
+                    public Listing load (Path dir) throws IOException
+                    {
+                        return metrics.isPresent () ?
+                            metrics.get ().list (dir) : Listing.of (dir);
+                    }
+                });
+        }
+        private final LoadingCache <Path, Listing> listings;
     }
 
     /**
-     * The function that returns the path matching a content
+     * The locator that remembers missing directories.
+     *
+     * <p>A content's path consists in the docbase directory, then a
+     * directory for each of the 3 first bytes of the ticket. When a file is
+     * not found, the locator figures out the top-most missing directory in
+     * that hierarchy: any file located under that directory is then reported
+     * as missing without accessing the file system.<br>
+     * Only directories the file system reports as not existing are pruned,
+     * the docbase directory never: any other error reading a directory
+     * fails the file's check instead, as it may be transient</p>
      */
-    private static final class PathOf implements Function <Content, Path>
+    private static final class PruningLocator implements Locator
     {
+        /**
+         * The number of directory levels in a content's path under the
+         * docbase directory
+         */
+        private static final int LEVELS = 3;
+
         @Override
-        public Path apply (Content content)
+        public Location locate (Path path)
         {
-            Store store = this.storeof.apply (content.store);
-            Preconditions.checkNotNull (
-                store, "null store found for content %s", content);
-            String relative = Content.makeRelative (content);
-            return Paths.get (store.path, relative);
+            Path dir = path.getParent ();
+            for (int level = 0; (level < LEVELS) && (null != dir); level++)
+            {
+                if (this.missing.contains (dir))
+                {
+                    return Location.missing (path);
+                }
+                dir = dir.getParent ();
+            }
+            Location location = this.locator.locate (path);
+            if (! location.found)
+            {
+                try
+                {
+                    prune (path.getParent ());
+                }
+                catch (IOException e)
+                {
+                    return Location.failed (path, e);
+                }
+            }
+            return location;
+        }
+
+        /**
+         * The method that records the top-most missing directory
+         * @param leaf is the directory of a missing file
+         * @throws IOException if reading a directory's attributes fails for
+         *                     another reason than the directory not existing
+         */
+        private void prune (Path leaf) throws IOException
+        {
+            Path top = null;
+            Path dir = leaf;
+            for (int level = 0; (level < LEVELS) && (null != dir); level++)
+            {
+                try
+                {
+                    if (Files.readAttributes (
+                        dir, BasicFileAttributes.class).isDirectory ()) break;
+                }
+                catch (NoSuchFileException e)
+                {
+                    // missing: so may be its parent
+                }
+                top = dir;
+                dir = dir.getParent ();
+            }
+            if (null != top)
+            {
+                this.missing.add (top);
+            }
         }
-        private PathOf (
-            Function <String, Store> storeof)
+
+        private PruningLocator (Locator locator)
         {
-            this.storeof = storeof;
+            this.locator = locator;
+            this.missing = Sets.newSetFromMap (
+                new ConcurrentHashMap <Path, Boolean> ());
         }
-        private final Function <String, Store> storeof;
+        private final Locator locator;
+        private final Set <Path> missing;
     }
 
-    private static Function <Content, Path> create (final Stores stores)
+    /**
+     * The method that returns the base name of a file: its name with no
+     * extension.
+     * @param name is the file name
+     * @return the base name
+     */
+    static String baseOf (String name)
+    {
+        int dot = name.lastIndexOf ('.');
+        return (-1 == dot) ? name : name.substring (0, dot);
+    }
+
+    /**
+     * The function that performs the check
+     */
+    public static final class ContentsChecker
+        implements Function <DecoratedContent, Result>
     {
-        Function <String, Store> storeof =
-            new Function <String, Store> ()
+        @Override
+        public Result apply (DecoratedContent dc)
         {
-            @Override
-            public Store apply (String id)
+            final Path expected = this.path.apply (dc.content);
+            if (null == expected)
+            {
+                return unknown (dc.content.store, dc.content.ticket,
+                    dc.content.extension);
+            }
+            return check (dc.content.store, dc.content.ticket, expected,
+                dc.content.size, dc.content.hash);
+        }
+
+        /**
+         * The method that checks a row of a batch, with no content being
+         * created
+         * @param batch carries the contents
+         * @param row is the row's index
+         * @return the result of the check
+         */
+        public Result apply (ContentBatch batch, int row)
+        {
+            if (-1 == batch.storeIndex (row))
+            {
+                return unknown (batch.storeId (row), batch.ticket (row),
+                    batch.extension (row));
+            }
+            final Path expected = this.path.of (batch.storeIndex (row),
+                batch.ticket (row), batch.extension (row));
+            return check (batch.storeId (row), batch.ticket (row), expected,
+                batch.size (row), batch.hash (row));
+        }
+
+        /**
+         * The method that returns the result of a content whose store is
+         * not known: its file cannot be looked for
+         * @param store is the content's store identifier
+         * @param ticket is the content's ticket
+         * @param extension is the file's extension if any
+         * @return the matching error, whose path is relative to the store
+         */
+        private static Result unknown (
+            String store, int ticket, Optional <String> extension)
+        {
+            final Path relative = Paths.get (Content.pathOf (
+                new StringBuilder (48), ticket, File.separatorChar).append (
+                    extension.or ("")).toString ());
+            return new Result.SizeError (relative, new IOException (
+                "there is no store matching id " + store));
+        }
+
+        /**
+         * The method that checks a file, emitting the probe's event
+         * @param store is the content's store identifier
+         * @param ticket is the content's ticket
+         * @param expected is the file's expected path
+         * @param size is the file's expected size
+         * @param hash is the expected digest if any
+         * @return the result of the check
+         */
+        private Result check (String store, int ticket,
+            Path expected, int size, Optional <String> hash)
+        {
+            final Events.Span span = Events.get ().begin (Events.Kind.PROBE);
+            final Result result = check (expected, size, hash);
+            span.commit (store, ticket,
+                (null == result.path) ? expected : result.path,
+                result.code.name (), size);
+            return result;
+        }
+
+        /**
+         * The method that checks a file
+         * @param expected is the file's expected path
+         * @param size is the file's expected size
+         * @param hash is the expected digest if any
+         * @return the result of the check
+         */
+        private Result check (Path expected, int size, Optional <String> hash)
+        {
+            final Location location = this.locator.locate (expected);
+            if (! location.found)
             {
-                return this.byids.get (id);
+                if (0 == size)
+                {
+                    return new Result.EmptyNotFound (location.path);
+                }
+                return new Result.NotFound (location.path);
             }
-            private final ImmutableMap <String, Store> byids = stores.byids ();
-        };
-        return new PathOf (storeof);
+
+            final Path path = location.path;
+            if (null != location.error)
+            {
+                return new Result.SizeError (path, location.error);
+            }
+            long actual = location.size;
+            if (size != actual)
+            {
+                if (0L == actual)
+                {
+                    return new Result.Empty (path, size);
+                }
+                return new Result.Size (path, size, actual);
+            }
+            if (! this.hasher.isPresent ())
+            {
+                return Result.OK;
+            }
+            try
+            {
+                final String digest = this.hasher.get ().digest (path);
+                if ((hash.isPresent ()) &&
+                    (! Hasher.matches (hash.get (), digest)))
+                {
+                    return new Result.BadHash (path, hash.get (), digest);
+                }
+                return new Result.Digest (path, digest);
+            }
+            catch (IOException e)
+            {
+                return new Result.SizeError (path, e);
+            }
+        }
+
+        private ContentsChecker (
+            ContentPaths path, Locator locator, Optional <Hasher> hasher)
+        {
+            this.path = path;
+            this.locator = locator;
+            this.hasher = hasher;
+        }
+        private final ContentPaths path;
+        private final Locator locator;
+        private final Optional <Hasher> hasher;
+    }
+
+    /**
+     * The method that returns the function computing the expected path of
+     * a content's file.
+     * @param stores carries the stores of use when accessing the files
+     * @return the matching function
+     */
+    static Function <Content, Path> paths (Stores stores)
+    {
+        return ContentPaths.create (stores);
+    }
+
+    /**
+     * @return the locator that probes the file system for each file
+     */
+    public static Locator probing () { return new ProbingLocator (); }
+
+    /**
+     * The method that returns the locator that reads each directory once.
+     * @param directories is the max number of directory listings to keep
+     * @return the matching locator
+     */
+    public static Locator listing (int directories)
+    {
+        return listing (directories, Optional.<Metrics>absent ());
+    }
+
+    /**
+     * The method that returns the locator that reads each directory once,
+     * recording the time it takes.
+     * @param directories is the max number of directory listings to keep
+     * @param metrics records the time reading directories takes if any
+     * @return the matching locator
+     */
+    static Locator listing (int directories, Optional <Metrics> metrics)
+    {
+        Preconditions.checkArgument (
+            0 < directories, "bad number of directories: %s", directories);
+        Preconditions.checkNotNull (metrics, "null metrics supplied");
+        return new ListingLocator (directories, metrics);
+    }
+
+    /**
+     * The method that returns the locator that remembers missing
+     * directories so that files under these are not looked for.
+     * @param locator is the locator to use for files not known as missing
+     * @return the matching locator
+     */
+    public static Locator pruning (Locator locator)
+    {
+        return new PruningLocator (Preconditions.checkNotNull (locator));
     }
 
     /**
@@ -396,10 +832,40 @@ public final class Checks
      * @return the matching result
      */
     public static Function <DecoratedContent, Result> checker (Stores stores)
+    {
+        return checker (stores, probing ());
+    }
+
+    /**
+     * The method return the function that verifies the content.
+     * @param stores carries the stores of use when accessing the files
+     * @param locator locates the file matching each content
+     * @return the matching result
+     */
+    public static Function <DecoratedContent, Result> checker (
+        Stores stores, Locator locator)
+    {
+        return checker (stores, locator, Optional.<Hasher>absent ());
+    }
+
+    /**
+     * The method return the function that verifies the content.
+     *
+     * <p>When a hasher is supplied, the digest of files with the expected
+     * size is computed and compared with the content's hash if any</p>
+     * @param stores carries the stores of use when accessing the files
+     * @param locator locates the file matching each content
+     * @param hasher computes the digest of files if any
+     * @return the matching result
+     */
+    public static ContentsChecker checker (
+        Stores stores, Locator locator, Optional <Hasher> hasher)
     {
         Preconditions.checkNotNull (stores);
-        Function <Content, Path> path = create (stores);
-        return new ContentsChecker (path);
+        Preconditions.checkNotNull (locator);
+        Preconditions.checkNotNull (hasher);
+        return new ContentsChecker (
+            ContentPaths.create (stores), locator, hasher);
     }
 
     private Checks () { super(); }
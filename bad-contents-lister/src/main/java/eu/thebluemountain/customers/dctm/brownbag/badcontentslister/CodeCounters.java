@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * The class that counts the results by code.
+ *
+ * <p>There is a counter per code, updated without locking: it can be
+ * updated by the threads checking contents while other threads read it,
+ * such as when dumping metrics</p>
+ */
+final class CodeCounters
+{
+    /**
+     * The codes, by ordinal
+     */
+    private static final Checks.Code [] CODES = Checks.Code.values ();
+
+    /**
+     * @return new counters, all 0
+     */
+    static CodeCounters create ()
+    {
+        return new CodeCounters ();
+    }
+
+    /**
+     * The method that counts a result
+     * @param code is the result's code
+     */
+    void add (Checks.Code code)
+    {
+        this.counts.incrementAndGet (code.ordinal ());
+    }
+
+    /**
+     * The method that counts results, such as the ones recorded in a
+     * checkpoint
+     * @param codes carries the results
+     */
+    void addAll (Multiset <Checks.Code> codes)
+    {
+        for (Multiset.Entry <Checks.Code> entry : codes.entrySet ())
+        {
+            this.counts.addAndGet (
+                entry.getElement ().ordinal (), entry.getCount ());
+        }
+    }
+
+    /**
+     * The method that returns the number of results of a code
+     * @param code is the code
+     * @return the number of results
+     */
+    long count (Checks.Code code)
+    {
+        return this.counts.get (code.ordinal ());
+    }
+
+    /**
+     * @return the total number of results
+     */
+    long total ()
+    {
+        long total = 0L;
+        for (int index = 0; index < CODES.length; index++)
+        {
+            total += this.counts.get (index);
+        }
+        return total;
+    }
+
+    /**
+     * @return the results so far
+     */
+    ImmutableMultiset <Checks.Code> snapshot ()
+    {
+        ImmutableMultiset.Builder <Checks.Code> codes =
+            ImmutableMultiset.builder ();
+        for (int index = 0; index < CODES.length; index++)
+        {
+            final long count = this.counts.get (index);
+            if (0L < count)
+            {
+                codes.addCopies (CODES [index],
+                    (int) Math.min (Integer.MAX_VALUE, count));
+            }
+        }
+        return codes.build ();
+    }
+
+    /**
+     * @return the string representation, as the one of a multiset
+     */
+    @Override
+    public String toString ()
+    {
+        final StringBuilder sb = new StringBuilder ().append ('[');
+        for (int index = 0; index < CODES.length; index++)
+        {
+            final long count = this.counts.get (index);
+            if (0L == count) continue;
+            if (1 < sb.length ())
+            {
+                sb.append (", ");
+            }
+            sb.append (CODES [index]);
+            if (1L < count)
+            {
+                sb.append (" x ").append (count);
+            }
+        }
+        return sb.append (']').toString ();
+    }
+
+    private CodeCounters ()
+    {
+        this.counts = new AtomicLongArray (CODES.length);
+    }
+    private final AtomicLongArray counts; // by code's ordinal
+}
@@ -41,6 +41,174 @@ public enum Command
      * <p>It expects an XML/JSON file name to be associated
      */
     CONFIG ("--config", "-C", true)
+    ,
+    /**
+     * The number of threads checking contents.
+     *
+     * <p>When supplied, contents are checked through a pipeline that
+     * reads contents, checks them and writes the report in parallel</p>
+     */
+    THREADS ("--threads", "-T", true)
+    ,
+    /**
+     * The max number of checks in flight.
+     *
+     * <p>When supplied, each content is checked by a task of its own on
+     * threads created on demand, so that many slow file system calls
+     * overlap; it supersedes the number of threads</p>
+     */
+    INFLIGHT ("--inflight", "-F", true)
+    ,
+    /**
+     * Indicates requirement to adapt the number of checks in flight to the
+     * latency of the file system.
+     *
+     * <p>The number of checks in flight then never exceeds the one
+     * supplied with {@link #INFLIGHT}</p>
+     */
+    ADAPTIVE ("--adaptive", "-A", false)
+    ,
+    /**
+     * Indicates requirement to read each directory once.
+     *
+     * <p>Files are then located from the directory's listing rather than
+     * by probing the file system for each file</p>
+     */
+    LISTING ("--listing", "-L", false)
+    ,
+    /**
+     * The number of contents to look ahead, reading their directories
+     * before they get checked.
+     *
+     * <p>When supplied, each directory is read once, as with
+     * {@link #LISTING}, on threads of its own</p>
+     */
+    PREFETCH ("--prefetch", "-D", true)
+    ,
+    /**
+     * The max number of directory listings to keep when prefetching
+     */
+    PREFETCHDIRS ("--prefetch-dirs", "-M", true)
+    ,
+    /**
+     * The specification of the inventory file to use.
+     *
+     * <p>It expects a file name to be associated: the file is read if it
+     * exists; otherwise stores are walked and the inventory is saved into
+     * the file</p>
+     */
+    INVENTORY ("--inventory", "-I", true)
+    ,
+    /**
+     * Indicates requirement to only walk the stores, saving the inventory
+     */
+    WALK ("--walk", "-W", false)
+    ,
+    /**
+     * Indicates requirement to list the files no content refers to
+     * rather than checking the contents
+     */
+    ORPHANS ("--orphans", "-O", false)
+    ,
+    /**
+     * Indicates requirement to check contents with no parent as well
+     */
+    PARENTLESS ("--parentless", "-P", false)
+    ,
+    /**
+     * Indicates requirement to read contents without their parent's meta
+     * data, looking for it on errors only
+     */
+    LEAN ("--lean", "-N", false)
+    ,
+    /**
+     * The number of contents read and checked at once.
+     *
+     * <p>Contents are then read as columns of primitive values and checked
+     * from these, sequentially: no object is created for the contents that
+     * are OK. It implies reading contents without their parent's meta
+     * data</p>
+     */
+    BATCH ("--batch", "-B", true)
+    ,
+    /**
+     * The specification of the results file to write.
+     *
+     * <p>It expects a file name to be associated: the result of every
+     * check, OK ones included, is recorded into the file as a compact
+     * binary record, in key order: it cannot be used with {@link #RESUME}
+     * nor {@link #DELTA}</p>
+     */
+    RESULTS ("--results", "-Y", true)
+    ,
+    /**
+     * The specification of the results file of a previous run to compare
+     * with the one of {@link #RESULTS}.
+     *
+     * <p>It expects a file name to be associated: the contents that broke,
+     * got fixed or changed failure since are then reported, without
+     * checking any content</p>
+     */
+    DIFF ("--diff", "-G", true)
+    ,
+    /**
+     * The prefix of the metrics files.
+     *
+     * <p>It expects a prefix to be associated: the scan's metrics (results
+     * by code and latencies by store) are regularly dumped as a JSON file
+     * and an OpenMetrics text file with the prefix as name</p>
+     */
+    METRICS ("--metrics", "-Q", true)
+    ,
+    /**
+     * The specification of the checkpoint file to use.
+     *
+     * <p>It expects a file name to be associated: the scan's progress is
+     * regularly saved into the file, which is removed once all contents are
+     * checked</p>
+     */
+    CHECKPOINT ("--checkpoint", "-K", true)
+    ,
+    /**
+     * Indicates requirement to resume the scan recorded in the checkpoint
+     * file, if any
+     */
+    RESUME ("--resume", "-U", false)
+    ,
+    /**
+     * The specification of the manifest file of delta runs.
+     *
+     * <p>It expects a file name to be associated: when the file exists,
+     * only the contents that may have changed since the previous run are
+     * checked; the file is then updated with the run's outcome</p>
+     */
+    DELTA ("--delta", "-E", true)
+    ,
+    /**
+     * The number of slices the contents are divided into for delta runs
+     */
+    SLICES ("--slices", "-S", true)
+    ,
+    /**
+     * The number of connections reading contents.
+     *
+     * <p>When more than one, contents are split into ranges of tickets of
+     * each store, read concurrently</p>
+     */
+    CONNECTIONS ("--connections", "-J", true)
+    ,
+    /**
+     * The number of threads computing files' digest.
+     *
+     * <p>When supplied, the digest of each file with the expected size is
+     * computed and compared with the content's hash</p>
+     */
+    HASH ("--hash", "-X", true)
+    ,
+    /**
+     * The max number of bytes per second to read when computing digests
+     */
+    HASHRATE ("--hash-rate", "-R", true)
     ;
 
     /**
@@ -19,14 +19,13 @@ package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Strings;
 import com.google.common.collect.ComparisonChain;
-import com.google.common.primitives.UnsignedInteger;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.Comparator;
 
 /**
@@ -71,6 +70,11 @@ public final class Content implements Comparable <Content>
     private static final Comparator <Optional <String>> OPTCOMP =
         new OptComparator <> ();
 
+    /**
+     * The lower case hexadecimal digits
+     */
+    static final char [] DIGITS = "0123456789abcdef".toCharArray ();
+
     /**
      * The method that returns the content matching supplied arguments.
      *
@@ -89,18 +93,71 @@ public final class Content implements Comparable <Content>
         String store, int ticket, String parent, boolean rendition,
         String format, int page, Optional <String> extension, int size,
         DateTime modified)
+    {
+        return create (store, ticket, parent, rendition, format, page,
+            extension, size, modified, Optional.<String>absent ());
+    }
+
+    /**
+     * The method that returns the content matching supplied arguments.
+     *
+     * @param store carries the related store's identifier
+     * @param ticket holds the data ticket for the content
+     * @param parent carries the parent object identifier
+     * @param rendition indicates whether content matches a rendition
+     * @param format carries the related format's name
+     * @param page is the page index of the content for the format
+     * @param extension carries the extension ... if any
+     * @param size carries the expected size of contents
+     * @param modified holds the modified date for the content
+     * @param hash carries the content's hash ... if any
+     * @return the matching content object
+     */
+    public static Content create (
+        String store, int ticket, String parent, boolean rendition,
+        String format, int page, Optional <String> extension, int size,
+        DateTime modified, Optional <String> hash)
+    {
+        return create (store, -1, ticket, parent, rendition, format, page,
+            extension, size, modified, hash);
+    }
+
+    /**
+     * The method that returns the content matching supplied arguments,
+     * knowing the index of its store.
+     *
+     * @param store carries the related store's identifier
+     * @param storeIndex is the index of the store; -1 if not known
+     * @param ticket holds the data ticket for the content
+     * @param parent carries the parent object identifier
+     * @param rendition indicates whether content matches a rendition
+     * @param format carries the related format's name
+     * @param page is the page index of the content for the format
+     * @param extension carries the extension ... if any
+     * @param size carries the expected size of contents
+     * @param modified holds the modified date for the content
+     * @param hash carries the content's hash ... if any
+     * @return the matching content object
+     */
+    public static Content create (
+        String store, int storeIndex, int ticket, String parent,
+        boolean rendition, String format, int page,
+        Optional <String> extension, int size, DateTime modified,
+        Optional <String> hash)
     {
         Preconditions.checkNotNull (store);
+        Preconditions.checkArgument (-1 <= storeIndex);
         Preconditions.checkNotNull (parent);
         Preconditions.checkNotNull (format);
         Preconditions.checkArgument (0 <= page);
         Preconditions.checkNotNull (extension);
         Preconditions.checkArgument (0 <= size);
         Preconditions.checkNotNull (modified);
+        Preconditions.checkNotNull (hash);
         modified = modified.withZone (DateTimeZone.UTC);
         return new Content (
-            store, ticket, parent, rendition,
-            format, page, extension, size, modified);
+            store, storeIndex, ticket, parent, rendition,
+            format, page, extension, size, modified, hash);
     }
 
     /**
@@ -113,19 +170,61 @@ public final class Content implements Comparable <Content>
     public static StringBuilder pathOf (
         StringBuilder sb, int ticket, char sep)
     {
-        String path = Strings.padStart (
-            UnsignedInteger.fromIntBits (ticket).toString (16), 8, '0');
-        return sb.append (path.charAt (0)).
-            append (path.charAt (1)).
-            append (sep).
-            append (path.charAt (2)).
-            append (path.charAt (3)).
-            append (sep).
-            append (path.charAt (4)).
-            append (path.charAt (5)).
-            append (sep).
-            append (path.charAt (6)).
-            append (path.charAt (7));
+        // the ticket's 8 hexadecimal digits, by pairs from the highest
+        for (int shift = 24; shift >= 0; shift -= 8)
+        {
+            if (24 != shift)
+            {
+                sb.append (sep);
+            }
+            sb.append (DIGITS [(ticket >>> (shift + 4)) & 0xf]).
+                append (DIGITS [(ticket >>> shift) & 0xf]);
+        }
+        return sb;
+    }
+
+    /**
+     * The method that returns the ticket matching a path relative to its
+     * store.
+     *
+     * <p>It is the inverse of {@link #pathOf(StringBuilder, int, char)}: the
+     * path should consist in 4 elements, each one carrying the hexadecimal
+     * value of a ticket's byte; the last one possibly followed by an
+     * extension</p>
+     * @param relative is the path relative to the store
+     * @return the (unsigned) ticket value; -1 if the path does not match
+     * a content's path
+     */
+    public static long ticketOf (Path relative)
+    {
+        if (4 != relative.getNameCount ()) return -1L;
+        long ticket = 0L;
+        for (int index = 0; index < 4; index++)
+        {
+            String name = relative.getName (index).toString ();
+            if (3 == index)
+            {
+                name = Checks.baseOf (name);
+            }
+            final int value = byteOf (name);
+            if (-1 == value) return -1L;
+            ticket = (ticket << 8) | value;
+        }
+        return ticket;
+    }
+
+    /**
+     * The method that returns the value of a ticket's byte in a path
+     * @param name carries the hexadecimal value on 2 characters
+     * @return the matching value; -1 if not matching
+     */
+    private static int byteOf (String name)
+    {
+        if (2 != name.length ()) return -1;
+        int high = Character.digit (name.charAt (0), 16);
+        int low = Character.digit (name.charAt (1), 16);
+        if ((-1 == high) || (-1 == low)) return -1;
+        return (high << 4) | low;
     }
 
     /**
@@ -191,6 +290,14 @@ public final class Content implements Comparable <Content>
      */
     public final String store;
 
+    /**
+     * The index of the related store among the stores the content was
+     * read with (see {@link Stores#indexOf(String)}); -1 if not known.
+     *
+     * <p>It is not part of the content's identity</p>
+     */
+    public final int storeIndex;
+
     /**
      * The content identifier ticket in the store
      */
@@ -231,6 +338,11 @@ public final class Content implements Comparable <Content>
      */
     public final DateTime modified;
 
+    /**
+     * The content's hash (aka: r_content_hash) if any
+     */
+    public final Optional <String> hash;
+
     @Override
     public int compareTo (Content o)
     {
@@ -261,7 +373,8 @@ public final class Content implements Comparable <Content>
     {
         return Objects.hashCode (
             this.store, this.ticket, this.parent, this.rendition,
-            this.format, this.extension, this.size, this.modified);
+            this.format, this.extension, this.size, this.modified,
+            this.hash);
     }
 
     @Override
@@ -278,7 +391,8 @@ public final class Content implements Comparable <Content>
                 && (this.parent.equals (other.parent))
                 && (this.format.equals (other.format))
                 && (this.extension.equals (other.extension))
-                && (this.modified.equals (other.modified)));
+                && (this.modified.equals (other.modified))
+                && (this.hash.equals (other.hash)));
         }
         return false;
     }
@@ -299,15 +413,22 @@ public final class Content implements Comparable <Content>
             sb.append (", \"extension\": \"").
                 append (this.extension.get ()).append ('"');
         }
+        if (this.hash.isPresent ())
+        {
+            sb.append (", \"hash\": \"").
+                append (this.hash.get ()).append ('"');
+        }
         return sb.append ('}').toString ();
     }
 
     private Content (
-        String store, int ticket, String parent, boolean rendition,
-        String format, int page, Optional <String> extension, int size,
-        DateTime modified)
+        String store, int storeIndex, int ticket, String parent,
+        boolean rendition, String format, int page,
+        Optional <String> extension, int size, DateTime modified,
+        Optional <String> hash)
     {
         this.store = store;
+        this.storeIndex = storeIndex;
         this.ticket = ticket;
         this.parent = parent;
         this.rendition = rendition;
@@ -316,5 +437,6 @@ public final class Content implements Comparable <Content>
         this.extension = extension;
         this.size = size;
         this.modified = modified;
+        this.hash = hash;
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * The function that computes the expected path of contents' files.
+ *
+ * <p>A file's path consists in the store's root, 3 directories and the
+ * file's name, each named after a byte of the ticket (from the highest)
+ * in hexadecimal. The roots are parsed once and, as contents are read in
+ * ticket's order, the last leaf directory of each store is kept: for most
+ * contents, only the file's name is resolved, the names without extension
+ * being computed once as well.</p>
+ *
+ * <p>It is thread-safe: the leaf directories are immutable, published
+ * through final fields, a thread missing the last one computes it
+ * again</p>
+ */
+final class ContentPaths implements Function <Content, Path>
+{
+    /**
+     * The files' names without extension, by ticket's lowest byte
+     */
+    private static final String [] NAMES = new String [256];
+    static
+    {
+        for (int value = 0; value < NAMES.length; value++)
+        {
+            NAMES [value] = new String (new char [] {
+                Content.DIGITS [value >>> 4], Content.DIGITS [value & 0xf]
+            });
+        }
+    }
+
+    /**
+     * The leaf directory of the files of a store whose tickets share the
+     * 3 highest bytes
+     */
+    private static final class Leaf
+    {
+        final Store store;
+        final int key; // the ticket without its lowest byte
+        final Path path;
+        private Leaf (Store store, int key, Path path)
+        {
+            this.store = store;
+            this.key = key;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The method that creates the function for stores
+     * @param stores carries the stores
+     * @return the matching function
+     */
+    static ContentPaths create (Stores stores)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        return new ContentPaths (stores);
+    }
+
+    @Override
+    public Path apply (Content content)
+    {
+        final int key = content.ticket >>> 8;
+        Leaf leaf = this.last;
+        if ((null == leaf) || (key != leaf.key) ||
+            (! leaf.store.id.equals (content.store)))
+        {
+            final int index = this.stores.indexOf (content.store);
+            if (-1 == index)
+            {
+                // no such store: the caller reports the content
+                return null;
+            }
+            leaf = leaf (index, key);
+            this.last = leaf;
+        }
+        return leaf.path.resolve (nameOf (content.ticket, content.extension));
+    }
+
+    /**
+     * The method that returns the expected path of a file, with no store
+     * lookup
+     * @param store is the store's index
+     * @param ticket is the content's ticket
+     * @param extension is the file's extension if any
+     * @return the matching path
+     */
+    Path of (int store, int ticket, Optional <String> extension)
+    {
+        return leaf (store, ticket >>> 8).path.resolve (
+            nameOf (ticket, extension));
+    }
+
+    /**
+     * The method that returns the leaf directory of a store, computing it
+     * if not the last one
+     * @param store is the store's index
+     * @param key is the ticket without its lowest byte
+     * @return the leaf directory
+     */
+    private Leaf leaf (int store, int key)
+    {
+        Leaf leaf = this.leaves [store];
+        if ((null != leaf) && (key == leaf.key))
+        {
+            return leaf;
+        }
+        final char [] chars = new char [8];
+        for (int index = 0; index < 3; index++)
+        {
+            final int value = (key >>> (16 - (index * 8))) & 0xff;
+            chars [index * 3] = Content.DIGITS [value >>> 4];
+            chars [(index * 3) + 1] = Content.DIGITS [value & 0xf];
+            if (2 != index)
+            {
+                chars [(index * 3) + 2] = File.separatorChar;
+            }
+        }
+        leaf = new Leaf (this.stores.get (store), key,
+            this.roots [store].resolve (new String (chars)));
+        this.leaves [store] = leaf;
+        return leaf;
+    }
+
+    /**
+     * The method that returns a file's name
+     * @param ticket is the content's ticket
+     * @param extension is the file's extension if any
+     * @return the file's name
+     */
+    private static String nameOf (int ticket, Optional <String> extension)
+    {
+        final String name = NAMES [ticket & 0xff];
+        return extension.isPresent () ? name.concat (extension.get ()) : name;
+    }
+
+    private ContentPaths (Stores stores)
+    {
+        this.stores = stores;
+        this.roots = new Path [stores.all.size ()];
+        for (int index = 0; index < this.roots.length; index++)
+        {
+            this.roots [index] = Paths.get (stores.get (index).path);
+        }
+        this.leaves = new Leaf [this.roots.length];
+    }
+    private final Stores stores;
+    private final Path [] roots; // the stores' roots, by index
+    private final Leaf [] leaves; // the last leaf directory, by store
+    private volatile Leaf last; // the last leaf directory of a content
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.DCReader;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.JDBCConnection;
+
+/**
+ * The class that writes the errors of a lean scan, once their parent's
+ * meta data is looked for.
+ *
+ * <p>Contents of a lean scan carry their parent's identifier only: the
+ * errors are kept until enough distinct parents are pending, then the
+ * parents are looked for with a single query and the errors written in
+ * the order they were reported.<br>
+ * It is expected to be invoked by a single thread, as the pipeline's sink
+ * is</p>
+ */
+final class Enricher implements Closeable
+{
+    /**
+     * The number of distinct parents to look for at once, as well as the
+     * max number of pending errors
+     */
+    private static final int BATCH = 500;
+
+    /**
+     * The method that creates a new enricher
+     * @param jdbc provides access to the database: a connection of its own
+     *             as the contents are being read meanwhile
+     * @param writer writes the errors
+     * @return the matching enricher
+     */
+    static Enricher create (JDBCConnection jdbc, CSVWriter writer)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        Preconditions.checkNotNull (writer, "null writer supplied");
+        return new Enricher (jdbc, writer);
+    }
+
+    /**
+     * The method that reports an error
+     * @param dc is the content, carrying the parent's identifier only
+     * @param result is the result of the check
+     */
+    void writeError (DecoratedContent dc, Checks.Result result)
+    {
+        Preconditions.checkNotNull (dc, "null dc supplied");
+        Preconditions.checkNotNull (result, "null result supplied");
+        if (Checks.Code.OK == result.code) return;
+        this.contents.add (dc);
+        this.results.add (result);
+        if (! Parent.NONE.equals (dc.parent))
+        {
+            this.ids.add (dc.parent.id);
+        }
+        // counts the errors, not the parents: errors with no parent or
+        // sharing a parent add no identifier yet must be bounded
+        if (BATCH <= this.contents.size ())
+        {
+            flush ();
+        }
+    }
+
+    /**
+     * The method that looks for the parents of the pending errors and
+     * writes these
+     */
+    void flush ()
+    {
+        final ImmutableMap <String, Parent> parents = this.ids.isEmpty () ?
+            ImmutableMap.<String, Parent>of () :
+            DCReader.parents (this.jdbc, this.ids);
+        for (int index = 0; index < this.contents.size (); index++)
+        {
+            final DecoratedContent dc = this.contents.get (index);
+            // the parent may have been removed since
+            final Parent parent = parents.get (dc.parent.id);
+            this.writer.writeError ((null == parent) ? dc :
+                DecoratedContent.create (dc.content, parent),
+                this.results.get (index));
+        }
+        this.contents.clear ();
+        this.results.clear ();
+        this.ids.clear ();
+    }
+
+    @Override
+    public void close ()
+    {
+        flush ();
+    }
+
+    private Enricher (JDBCConnection jdbc, CSVWriter writer)
+    {
+        this.jdbc = jdbc;
+        this.writer = writer;
+        this.contents = Lists.newArrayList ();
+        this.results = Lists.newArrayList ();
+        this.ids = Sets.newHashSet ();
+    }
+    private final JDBCConnection jdbc;
+    private final CSVWriter writer;
+    private final List <DecoratedContent> contents; // the pending errors
+    private final List <Checks.Result> results;
+    private final Set <String> ids; // the pending parents' identifiers
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The class that emits the events of a scan, of use when profiling it:
+ * reading rows, checking files and writing logs.
+ *
+ * <p>By default, events are discarded. Another implementation can be
+ * supplied as a service (a {@code META-INF/services} entry on the class
+ * path): the {@code bad-contents-lister-jfr} module provides the one that
+ * emits Java Flight Recorder events, on JVMs that support them.<br>
+ * Implementations are expected to be cheap when their events are not
+ * recorded: {@link #begin(Kind)} then returns a span that does nothing.</p>
+ */
+public abstract class Events
+{
+    /**
+     * The kinds of events
+     */
+    public enum Kind
+    {
+        /**
+         * Reading rows from the database
+         */
+        FETCH,
+        /**
+         * Checking a content's file
+         */
+        PROBE,
+        /**
+         * Listing a directory, looking for a file with another extension
+         */
+        LISTING,
+        /**
+         * Encoding records into a log
+         */
+        WRITE,
+        /**
+         * Writing a log's buffer to its file
+         */
+        FLUSH
+    }
+
+    /**
+     * The interface for the spans of time events are about
+     */
+    public interface Span
+    {
+        /**
+         * The method that ends the span, emitting its event if recorded
+         * @param store is the store's identifier; null if none
+         * @param ticket is the content's ticket; 0 if none
+         * @param path is the file or directory; null if none
+         * @param outcome is the outcome, such as the result's code
+         * @param count is the number of rows, records or files involved
+         */
+        void commit (
+            String store, int ticket, Path path, String outcome, long count);
+    }
+
+    /**
+     * The span that does nothing
+     */
+    public static final Span NONE = new Span ()
+    {
+        @Override
+        public void commit (
+            String store, int ticket, Path path, String outcome, long count)
+        {
+            // discarded
+        }
+    };
+
+    /**
+     * @return the events of the JVM
+     */
+    public static Events get () { return EVENTS; }
+
+    /**
+     * The method that begins a span
+     * @param kind is the kind of the span's event
+     * @return the span; {@link #NONE} if such events are not recorded
+     */
+    public abstract Span begin (Kind kind);
+
+    /**
+     * The events that are discarded
+     */
+    private static final class Discarding extends Events
+    {
+        @Override
+        public Span begin (Kind kind) { return NONE; }
+    }
+
+    /**
+     * The events of the JVM
+     */
+    private static final Events EVENTS = load ();
+
+    /**
+     * The method that loads the first implementation supplied as a service
+     * @return the implementation; the discarding one if none can be loaded
+     */
+    private static Events load ()
+    {
+        try
+        {
+            final Iterator <Events> it =
+                ServiceLoader.load (Events.class).iterator ();
+            if (it.hasNext ())
+            {
+                return it.next ();
+            }
+        }
+        catch (ServiceConfigurationError | LinkageError e)
+        {
+            // such as JFR events on a JVM with no JFR
+            System.err.println ("events discarded: " + e);
+        }
+        return new Discarding ();
+    }
+
+    protected Events () { super (); }
+}
@@ -22,6 +22,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * The class that resolves an object's extension given a function that returns
  * a format extension and a collection of stores that accept extensions.
@@ -53,8 +56,15 @@ public final class ExtensionResolver
     {
         if (this.stores.contains (store))
         {
-            return Optional.fromNullable (
-                Strings.emptyToNull (this.extensions.apply (format)));
+            // formats are few: all contents of a format share the instance
+            Optional <String> extension = this.byformats.get (format);
+            if (null == extension)
+            {
+                extension = Optional.fromNullable (
+                    Strings.emptyToNull (this.extensions.apply (format)));
+                this.byformats.putIfAbsent (format, extension);
+            }
+            return extension;
         }
         return Optional.absent ();
     }
@@ -64,7 +74,9 @@ public final class ExtensionResolver
     {
         this.stores = stores;
         this.extensions = extensions;
+        this.byformats = new ConcurrentHashMap <> ();
     }
     private final ImmutableSet <String> stores;
     private final Function <String, String> extensions;
+    private final ConcurrentMap <String, Optional <String>> byformats;
 }
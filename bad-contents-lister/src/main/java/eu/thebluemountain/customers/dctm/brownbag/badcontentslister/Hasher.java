@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The class that computes the digest of files.
+ *
+ * <p>Files are read on a dedicated pool of threads, each one reading
+ * through a large direct buffer so that the data is not copied in the java
+ * heap. The overall reading can be limited to a number of bytes per
+ * second so that the storage is not overwhelmed.</p>
+ */
+public final class Hasher implements Closeable
+{
+    /**
+     * The size of the buffer used to read files
+     */
+    private static final int BUFFERSIZE = 1 << 20;
+
+    /**
+     * The method that creates a new hasher
+     * @param algorithm is the digest algorithm, such as SHA-1
+     * @param threads is the number of threads reading files
+     * @param rate is the max number of bytes to read per second if any
+     * @return the matching hasher
+     */
+    public static Hasher create (
+        String algorithm, int threads, Optional <Integer> rate)
+    {
+        Preconditions.checkNotNull (algorithm, "null algorithm supplied");
+        Preconditions.checkArgument (0 < threads, "bad threads: %s", threads);
+        Preconditions.checkNotNull (rate, "null rate supplied");
+        try
+        {
+            // fails early if the algorithm is not supported
+            MessageDigest.getInstance (algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalArgumentException (e);
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool (
+            threads, new ThreadFactoryBuilder ().
+                setNameFormat ("hasher-%d").setDaemon (true).build ());
+        final Optional <RateLimiter> limiter = rate.isPresent () ?
+            Optional.of (RateLimiter.create (rate.get ())) :
+            Optional.<RateLimiter>absent ();
+        return new Hasher (algorithm, pool, limiter);
+    }
+
+    /**
+     * The method that computes the digest of a file.
+     *
+     * <p>The file is read by one of the hasher's threads: the calling
+     * thread waits for the digest</p>
+     * @param path is the file to read
+     * @return the digest, as lower case hexadecimal string
+     * @throws IOException when reading the file
+     */
+    public String digest (final Path path) throws IOException
+    {
+        try
+        {
+            return this.pool.submit (new Callable <String> ()
+            {
+                @Override
+                public String call () throws IOException
+                {
+                    return Hasher.this.compute (path);
+                }
+            }).get ();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+            throw new IOException ("interrupted hashing " + path, e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.propagateIfInstanceOf (e.getCause (), IOException.class);
+            throw Throwables.propagate (e.getCause ());
+        }
+    }
+
+    /**
+     * The method that indicates whether a digest matches an expected one.
+     *
+     * <p>The expected digest is accepted either in hexadecimal or in
+     * base 64 encoding</p>
+     * @param expected is the expected digest
+     * @param digest is the digest, as returned by {@link #digest(Path)}
+     * @return whether they match
+     */
+    public static boolean matches (String expected, String digest)
+    {
+        final String trimmed = expected.trim ();
+        if (trimmed.equalsIgnoreCase (digest)) return true;
+        try
+        {
+            byte [] bytes = BaseEncoding.base64 ().decode (trimmed);
+            return BaseEncoding.base16 ().lowerCase ().encode (bytes).
+                equals (digest);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // neither hexadecimal nor base 64
+            return false;
+        }
+    }
+
+    @Override
+    public void close ()
+    {
+        this.pool.shutdownNow ();
+    }
+
+    private String compute (Path path) throws IOException
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance (this.algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException (e);
+        }
+        ByteBuffer buffer = this.buffers.get ();
+        try (FileChannel channel =
+                 FileChannel.open (path, StandardOpenOption.READ))
+        {
+            while (true)
+            {
+                buffer.clear ();
+                final int read = channel.read (buffer);
+                if (-1 == read) break;
+                if (this.limiter.isPresent () && (0 < read))
+                {
+                    this.limiter.get ().acquire (read);
+                }
+                buffer.flip ();
+                digest.update (buffer);
+            }
+        }
+        return BaseEncoding.base16 ().lowerCase ().encode (digest.digest ());
+    }
+
+    private Hasher (
+        String algorithm, ExecutorService pool,
+        Optional <RateLimiter> limiter)
+    {
+        this.algorithm = algorithm;
+        this.pool = pool;
+        this.limiter = limiter;
+        this.buffers = new ThreadLocal <ByteBuffer> ()
+        {
+            @Override
+            protected ByteBuffer initialValue ()
+            {
+                return ByteBuffer.allocateDirect (BUFFERSIZE);
+            }
+        };
+    }
+    private final String algorithm;
+    private final ExecutorService pool;
+    private final Optional <RateLimiter> limiter;
+    private final ThreadLocal <ByteBuffer> buffers;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The class that encodes docbase's identifiers as {@code long}s.
+ *
+ * <p>Identifiers (such as r_object_id) consist in 16 hexadecimal digits:
+ * the 64 bits they carry fit in a {@code long}, of use when keeping large
+ * numbers of identifiers. The string is computed again when output</p>
+ */
+public final class Ids
+{
+    /**
+     * The number of digits of an identifier
+     */
+    private static final int LENGTH = 16;
+
+    /**
+     * The method that encodes an identifier
+     * @param id is the identifier
+     * @return the matching long
+     * @throws IllegalArgumentException if not an identifier
+     */
+    public static long parse (String id)
+    {
+        Preconditions.checkNotNull (id, "null id supplied");
+        Preconditions.checkArgument (
+            LENGTH == id.length (), "bad identifier: %s", id);
+        long value = 0L;
+        for (int index = 0; index < LENGTH; index++)
+        {
+            final int digit = Character.digit (id.charAt (index), 16);
+            Preconditions.checkArgument (
+                -1 != digit, "bad identifier: %s", id);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * The method that appends the identifier matching an encoded one
+     * @param sb is the builder to append to
+     * @param id is the encoded identifier
+     * @return the builder
+     */
+    public static StringBuilder append (StringBuilder sb, long id)
+    {
+        for (int shift = (LENGTH - 1) * 4; shift >= 0; shift -= 4)
+        {
+            sb.append (Content.DIGITS [(int) (id >>> shift) & 0xf]);
+        }
+        return sb;
+    }
+
+    /**
+     * The method that returns the identifier matching an encoded one
+     * @param id is the encoded identifier
+     * @return the identifier
+     */
+    public static String toString (long id)
+    {
+        return append (new StringBuilder (LENGTH), id).toString ();
+    }
+
+    private Ids () { super(); }
+}
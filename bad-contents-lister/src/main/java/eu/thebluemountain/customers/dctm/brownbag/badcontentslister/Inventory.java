@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The class that carries the files found in stores.
+ *
+ * <p>For each store, it keeps the files sorted by ticket, using the same
+ * (signed) order as the contents are read from the database. Each file is
+ * described by its ticket, its extension, its size and its last modified
+ * time.<br>
+ * An inventory can be saved to (and read from) a compact binary file so
+ * that it can be produced on the host that serves the files.</p>
+ */
+public final class Inventory
+{
+    /**
+     * The identifying number at the start of an inventory file
+     */
+    private static final int MAGIC = 0x44434956;
+
+    /**
+     * The version of the inventory file format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The class that collects files before they are sorted.
+     *
+     * <p>Extensions are kept in a table: files only carry the index of their
+     * extension in that table</p>
+     */
+    static final class Builder
+    {
+        /**
+         * The method that adds a file
+         * @param ticket is the file's ticket
+         * @param extension is the file's extension (with the leading dot)
+         *                  or an empty string
+         * @param size is the file's size
+         * @param modified is the file's last modified time
+         * @return this builder
+         */
+        Builder add (int ticket, String extension, long size, long modified)
+        {
+            Integer ext = this.indexes.get (extension);
+            if (null == ext)
+            {
+                ext = this.extensions.size ();
+                Preconditions.checkState (
+                    Short.MAX_VALUE >= ext, "too many extensions");
+                this.extensions.add (extension);
+                this.indexes.put (extension, ext);
+            }
+            ensure (this.size + 1);
+            this.tickets [this.size] = ticket;
+            this.exts [this.size] = ext.shortValue ();
+            this.sizes [this.size] = size;
+            this.modified [this.size] = modified;
+            this.size++;
+            return this;
+        }
+
+        /**
+         * The method that sorts the files by ticket
+         * @return this builder
+         */
+        Builder sort ()
+        {
+            final int count = this.size;
+            long [] keys = new long [count];
+            for (int index = 0; index < count; index++)
+            {
+                // the (signed) ticket first, then the index
+                keys [index] = (((long) this.tickets [index]) << 32) | index;
+            }
+            Arrays.sort (keys);
+            int [] tickets = new int [count];
+            short [] exts = new short [count];
+            long [] sizes = new long [count];
+            long [] modified = new long [count];
+            for (int index = 0; index < count; index++)
+            {
+                int from = (int) keys [index];
+                tickets [index] = this.tickets [from];
+                exts [index] = this.exts [from];
+                sizes [index] = this.sizes [from];
+                modified [index] = this.modified [from];
+            }
+            this.tickets = tickets;
+            this.exts = exts;
+            this.sizes = sizes;
+            this.modified = modified;
+            return this;
+        }
+
+        /**
+         * The method that appends the files of another builder.
+         * @param other is the builder whose files come after this builder's
+         * @return this builder
+         */
+        Builder append (Builder other)
+        {
+            final int count = other.size;
+            ensure (this.size + count);
+            for (int index = 0; index < count; index++)
+            {
+                add (other.tickets [index],
+                    other.extensions.get (other.exts [index]),
+                    other.sizes [index], other.modified [index]);
+            }
+            return this;
+        }
+
+        /**
+         * The method that returns the files of a store
+         * @param store is the store's identifier
+         * @return the matching files
+         */
+        StoreFiles build (String store)
+        {
+            return new StoreFiles (
+                store, this.extensions.toArray (new String [0]), this.size,
+                Arrays.copyOf (this.tickets, this.size),
+                Arrays.copyOf (this.exts, this.size),
+                Arrays.copyOf (this.sizes, this.size),
+                Arrays.copyOf (this.modified, this.size));
+        }
+
+        private void ensure (int capacity)
+        {
+            if (capacity <= this.tickets.length) return;
+            int length = Math.max (capacity, this.tickets.length * 2);
+            this.tickets = Arrays.copyOf (this.tickets, length);
+            this.exts = Arrays.copyOf (this.exts, length);
+            this.sizes = Arrays.copyOf (this.sizes, length);
+            this.modified = Arrays.copyOf (this.modified, length);
+        }
+
+        Builder ()
+        {
+            this.extensions = Lists.newArrayList ();
+            this.indexes = Maps.newHashMap ();
+            this.tickets = new int [256];
+            this.exts = new short [256];
+            this.sizes = new long [256];
+            this.modified = new long [256];
+        }
+        private final List <String> extensions;
+        private final Map <String, Integer> indexes;
+        private int size;
+        private int [] tickets;
+        private short [] exts;
+        private long [] sizes;
+        private long [] modified;
+    }
+
+    /**
+     * The class that carries the files of a store, sorted by ticket
+     */
+    public static final class StoreFiles
+    {
+        /**
+         * The max number of files to skip when moving forward; beyond, the
+         * files are searched by dichotomy
+         */
+        private static final int SCAN = 64;
+
+        /**
+         * The store's identifier
+         */
+        public final String store;
+
+        /**
+         * @return the number of files
+         */
+        public int size () { return this.size; }
+
+        /**
+         * The method that locates a content's file.
+         *
+         * <p>It returns the file with the expected extension if any and,
+         * otherwise, the last modified file with the same ticket.<br>
+         * As contents are read in ticket's order, the files are usually
+         * looked for in that order as well: the method then moves a cursor
+         * forward, as a merge join would. When not (such as when checking in
+         * parallel), it searches the files by dichotomy</p>
+         * @param path is the expected path
+         * @param ticket is the content's ticket
+         * @param extension is the expected extension or an empty string
+         * @return the matching location
+         */
+        public Checks.Location locate (
+            Path path, int ticket, String extension)
+        {
+            int index = first (ticket);
+            this.cursor = index;
+            int found = -1;
+            for (; (index < this.size) && (this.tickets [index] == ticket);
+                 index++)
+            {
+                if (this.extensions [this.exts [index]].equals (extension))
+                {
+                    return Checks.Location.found (path, this.sizes [index]);
+                }
+                if ((-1 == found) ||
+                    (this.modified [index] > this.modified [found]))
+                {
+                    found = index;
+                }
+            }
+            if (-1 == found)
+            {
+                return Checks.Location.missing (path);
+            }
+            String name = Checks.baseOf (path.getFileName ().toString ()) +
+                this.extensions [this.exts [found]];
+            return Checks.Location.found (
+                path.resolveSibling (name), this.sizes [found]);
+        }
+
+        /**
+         * The method that returns the index of the first file whose ticket
+         * is not less than supplied one
+         * @param ticket is the ticket
+         * @return the matching index; the number of files if none
+         */
+        private int first (int ticket)
+        {
+            final int hint = this.cursor;
+            if ((hint < this.size) && (this.tickets [hint] <= ticket))
+            {
+                final int limit = Math.min (this.size, hint + SCAN);
+                int index = hint;
+                while ((index < limit) && (this.tickets [index] < ticket))
+                {
+                    index++;
+                }
+                if ((index < limit) || (limit == this.size))
+                {
+                    return index;
+                }
+            }
+            int low = 0;
+            int high = this.size;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (this.tickets [middle] < ticket)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "StoreFiles {store: " + this.store +
+                ", size: " + this.size + "}";
+        }
+
+        private StoreFiles (
+            String store, String [] extensions, int size, int [] tickets,
+            short [] exts, long [] sizes, long [] modified)
+        {
+            this.store = store;
+            this.extensions = extensions;
+            this.size = size;
+            this.tickets = tickets;
+            this.exts = exts;
+            this.sizes = sizes;
+            this.modified = modified;
+            this.cursor = 0;
+        }
+        private final String [] extensions;
+        private final int size;
+        private final int [] tickets;
+        private final short [] exts;
+        private final long [] sizes;
+        private final long [] modified;
+        // where the last file was looked for
+        private volatile int cursor;
+    }
+
+    /**
+     * The locator that looks for files in the inventory
+     */
+    private static final class InventoryLocator implements Checks.Locator
+    {
+        @Override
+        public Checks.Location locate (Path path)
+        {
+            final Path root = path.getParent ().getParent ().
+                getParent ().getParent ();
+            final StoreFiles files = (null == root) ? null :
+                this.byroots.get (root);
+            final long ticket = (null == files) ? -1L :
+                Content.ticketOf (root.relativize (path));
+            if (-1L == ticket)
+            {
+                return this.fallback.locate (path);
+            }
+            final String name = path.getFileName ().toString ();
+            final String extension =
+                name.substring (Checks.baseOf (name).length ());
+            return files.locate (path, (int) ticket, extension);
+        }
+
+        private InventoryLocator (
+            ImmutableMap <Path, StoreFiles> byroots, Checks.Locator fallback)
+        {
+            this.byroots = byroots;
+            this.fallback = fallback;
+        }
+        private final ImmutableMap <Path, StoreFiles> byroots;
+        private final Checks.Locator fallback;
+    }
+
+    /**
+     * The method that creates an inventory
+     * @param files carries the files of each store
+     * @return the matching inventory
+     */
+    public static Inventory create (Iterable <StoreFiles> files)
+    {
+        ImmutableMap.Builder <String, StoreFiles> builder =
+            ImmutableMap.builder ();
+        for (StoreFiles current : files)
+        {
+            builder.put (current.store, current);
+        }
+        return new Inventory (builder.build ());
+    }
+
+    /**
+     * The method that reads an inventory from a file
+     * @param file is the file to read
+     * @return the matching inventory
+     * @throws IOException when reading the file
+     */
+    public static Inventory read (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        try (DataInputStream in = new DataInputStream (
+            new BufferedInputStream (new GZIPInputStream (
+                Files.newInputStream (file), 1 << 16), 1 << 16)))
+        {
+            if (MAGIC != in.readInt ())
+            {
+                throw new IOException ("not an inventory file: " + file);
+            }
+            final int version = in.readInt ();
+            if (VERSION != version)
+            {
+                throw new IOException (
+                    "unsupported inventory version " + version + ": " + file);
+            }
+            int stores = in.readInt ();
+            List <StoreFiles> files = Lists.newArrayListWithCapacity (stores);
+            for (int index = 0; index < stores; index++)
+            {
+                String store = in.readUTF ();
+                String [] extensions = new String [in.readInt ()];
+                for (int ext = 0; ext < extensions.length; ext++)
+                {
+                    extensions [ext] = in.readUTF ();
+                }
+                final int size = in.readInt ();
+                int [] tickets = new int [size];
+                short [] exts = new short [size];
+                long [] sizes = new long [size];
+                long [] modified = new long [size];
+                for (int entry = 0; entry < size; entry++)
+                {
+                    tickets [entry] = in.readInt ();
+                    exts [entry] = in.readShort ();
+                    sizes [entry] = in.readLong ();
+                    modified [entry] = in.readLong ();
+                }
+                files.add (new StoreFiles (
+                    store, extensions, size, tickets, exts, sizes, modified));
+            }
+            return create (files);
+        }
+    }
+
+    /**
+     * The files of each store, identified by store's identifier
+     */
+    public final ImmutableMap <String, StoreFiles> bystores;
+
+    /**
+     * The method that writes the inventory to a file
+     * @param file is the file to write to
+     * @throws IOException when writing the file
+     */
+    public void write (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        try (DataOutputStream out = new DataOutputStream (
+            new BufferedOutputStream (new GZIPOutputStream (
+                Files.newOutputStream (file), 1 << 16), 1 << 16)))
+        {
+            out.writeInt (MAGIC);
+            out.writeInt (VERSION);
+            out.writeInt (this.bystores.size ());
+            for (StoreFiles files : this.bystores.values ())
+            {
+                out.writeUTF (files.store);
+                out.writeInt (files.extensions.length);
+                for (String extension : files.extensions)
+                {
+                    out.writeUTF (extension);
+                }
+                out.writeInt (files.size);
+                for (int index = 0; index < files.size; index++)
+                {
+                    out.writeInt (files.tickets [index]);
+                    out.writeShort (files.exts [index]);
+                    out.writeLong (files.sizes [index]);
+                    out.writeLong (files.modified [index]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the total number of files
+     */
+    public long size ()
+    {
+        long size = 0L;
+        for (StoreFiles files : this.bystores.values ())
+        {
+            size += files.size;
+        }
+        return size;
+    }
+
+    /**
+     * The method that returns the locator that looks for files in the
+     * inventory.
+     * @param stores carries the stores
+     * @param fallback is the locator to use for stores not in the inventory
+     * @return the matching locator
+     */
+    public Checks.Locator locator (Stores stores, Checks.Locator fallback)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkNotNull (fallback, "null fallback supplied");
+        ImmutableMap.Builder <Path, StoreFiles> builder =
+            ImmutableMap.builder ();
+        for (Store store : stores.all)
+        {
+            StoreFiles files = this.bystores.get (store.id);
+            if (null != files)
+            {
+                builder.put (Paths.get (store.path), files);
+            }
+        }
+        return new InventoryLocator (builder.build (), fallback);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "Inventory " + this.bystores.values ();
+    }
+
+    private Inventory (ImmutableMap <String, StoreFiles> bystores)
+    {
+        this.bystores = bystores;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The class that walks the stores' directories to build an inventory.
+ *
+ * <p>The directories of a store are walked in parallel: one task for each
+ * directory matching the first byte of tickets. Files whose path does not
+ * match a ticket are ignored.</p>
+ */
+public final class InventoryWalker
+{
+    /**
+     * The first-level directory of a store
+     */
+    private static final class Top
+    {
+        final Path dir;
+        final int value; // the ticket's first byte (signed)
+        private Top (Path dir, int value)
+        {
+            this.dir = dir;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Orders the first-level directories as tickets are: by signed value
+     */
+    private static final Comparator <Top> BYVALUE = new Comparator <Top> ()
+    {
+        @Override
+        public int compare (Top o1, Top o2)
+        {
+            return Integer.compare (o1.value, o2.value);
+        }
+    };
+
+    /**
+     * The task that walks a first-level directory
+     */
+    private static final class Walk implements Callable <Inventory.Builder>
+    {
+        @Override
+        public Inventory.Builder call () throws IOException
+        {
+            final Inventory.Builder builder = new Inventory.Builder ();
+            Files.walkFileTree (this.dir, EnumSet.noneOf (
+                FileVisitOption.class), 3, new SimpleFileVisitor <Path> ()
+                {
+                    @Override
+                    public FileVisitResult visitFile (
+                        Path file, BasicFileAttributes attrs)
+                    {
+                        if (attrs.isDirectory ())
+                        {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long ticket = Content.ticketOf (
+                            Walk.this.root.relativize (file));
+                        if (-1L != ticket)
+                        {
+                            final String name = file.getFileName ().toString ();
+                            builder.add ((int) ticket,
+                                name.substring (Checks.baseOf (name).length ()),
+                                attrs.size (),
+                                attrs.lastModifiedTime ().toMillis ());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            return builder.sort ();
+        }
+
+        private Walk (Path root, Path dir)
+        {
+            this.root = root;
+            this.dir = dir;
+        }
+        private final Path root;
+        private final Path dir;
+    }
+
+    /**
+     * The method that walks the stores.
+     * @param stores carries the stores to walk
+     * @param threads is the number of threads walking directories
+     * @return the matching inventory
+     * @throws IOException when reading a directory
+     * @throws InterruptedException when interrupted while waiting for
+     * the walks to complete
+     */
+    public static Inventory walk (Stores stores, int threads)
+        throws IOException, InterruptedException
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkArgument (0 < threads, "bad threads: %s", threads);
+        final ExecutorService pool = Executors.newFixedThreadPool (
+            threads, new ThreadFactoryBuilder ().
+                setNameFormat ("walker-%d").setDaemon (true).build ());
+        try
+        {
+            List <Inventory.StoreFiles> files = Lists.newArrayList ();
+            for (Store store : stores.all)
+            {
+                Stopwatch watch = Stopwatch.createStarted ();
+                Inventory.StoreFiles current = walk (store, pool);
+                System.out.println (
+                    "spent " + watch.stop () + " to walk " + current.size () +
+                        " files in store " + store.name);
+                files.add (current);
+            }
+            return Inventory.create (files);
+        }
+        finally
+        {
+            pool.shutdownNow ();
+        }
+    }
+
+    /**
+     * The method that returns the first-level directories of a store.
+     * @param root is the store's directory
+     * @return the directories, in the order of tickets
+     * @throws IOException when reading the directory
+     */
+    static List <Path> tops (Path root) throws IOException
+    {
+        List <Top> tops = Lists.newArrayList ();
+        try (DirectoryStream <Path> dirs = Files.newDirectoryStream (root))
+        {
+            for (Path dir : dirs)
+            {
+                long value = Content.ticketOf (
+                    root.relativize (dir.resolve ("00/00/00")));
+                if ((-1L != value) && (Files.isDirectory (dir)))
+                {
+                    tops.add (new Top (dir, ((int) value) >> 24));
+                }
+            }
+        }
+        Collections.sort (tops, BYVALUE);
+        List <Path> dirs = Lists.newArrayListWithCapacity (tops.size ());
+        for (Top top : tops)
+        {
+            dirs.add (top.dir);
+        }
+        return dirs;
+    }
+
+    /**
+     * The method that returns the results of tasks, in order.
+     *
+     * <p>When a task fails, all tasks are cancelled</p>
+     * @param tasks carries the tasks
+     * @param <T> is the type of result
+     * @return the results
+     * @throws IOException when a task fails reading a directory
+     * @throws InterruptedException when interrupted while waiting
+     */
+    static <T> List <T> results (List <Future <T>> tasks)
+        throws IOException, InterruptedException
+    {
+        List <T> results = Lists.newArrayListWithCapacity (tasks.size ());
+        try
+        {
+            for (Future <T> task : tasks)
+            {
+                results.add (task.get ());
+            }
+            return results;
+        }
+        catch (ExecutionException e)
+        {
+            for (Future <T> task : tasks)
+            {
+                task.cancel (true);
+            }
+            Throwables.propagateIfInstanceOf (e.getCause (), IOException.class);
+            throw Throwables.propagate (e.getCause ());
+        }
+    }
+
+    private static Inventory.StoreFiles walk (
+        Store store, ExecutorService pool)
+        throws IOException, InterruptedException
+    {
+        final Path root = Paths.get (store.path);
+        final List <Path> tops;
+        try
+        {
+            tops = tops (root);
+        }
+        catch (NoSuchFileException e)
+        {
+            System.err.println ("there is no directory " + root);
+            return new Inventory.Builder ().build (store.id);
+        }
+        List <Future <Inventory.Builder>> walks = Lists.newArrayList ();
+        for (Path top : tops)
+        {
+            walks.add (pool.submit (new Walk (root, top)));
+        }
+        Inventory.Builder builder = new Inventory.Builder ();
+        for (Inventory.Builder walk : results (walks))
+        {
+            builder.append (walk);
+        }
+        return builder.build (store.id);
+    }
+
+    private InventoryWalker () { super (); }
+}
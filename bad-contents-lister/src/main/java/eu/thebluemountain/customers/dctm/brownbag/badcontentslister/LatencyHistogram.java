@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The class that records the distribution of latencies.
+ *
+ * <p>As with HdrHistogram, values are counted in buckets whose width grows
+ * with the values: values below {@link #LINEAR} get a bucket each, then
+ * each power of 2 is divided into {@link #SUBBUCKETS} buckets, so that any
+ * value is known within 1/64th of its magnitude (about 1.6%) whatever the
+ * range. Recording a value consists in incrementing a counter: it can be
+ * done by several threads at once, without locking, while other threads
+ * read percentiles.</p>
+ */
+final class LatencyHistogram
+{
+    /**
+     * The number of buckets per power of 2
+     */
+    private static final int SUBBUCKETS = 64;
+
+    /**
+     * The values below that get a bucket each
+     */
+    private static final int LINEAR = 2 * SUBBUCKETS;
+
+    /**
+     * The number of buckets, covering all positive {@code long}s
+     */
+    private static final int BUCKETS = indexOf (Long.MAX_VALUE) + 1;
+
+    /**
+     * @return a new empty histogram
+     */
+    static LatencyHistogram create ()
+    {
+        return new LatencyHistogram ();
+    }
+
+    /**
+     * The method that records a value
+     * @param value is the value, usually in nanoseconds; negative values
+     *              are recorded as 0
+     */
+    void record (long value)
+    {
+        final long recorded = Math.max (0L, value);
+        this.buckets.incrementAndGet (indexOf (recorded));
+        this.sum.addAndGet (recorded);
+        long max;
+        while (recorded > (max = this.max.get ()))
+        {
+            if (this.max.compareAndSet (max, recorded)) break;
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long count ()
+    {
+        // not counted apart: one contended counter less when recording
+        long count = 0L;
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            count += this.buckets.get (index);
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    long sum () { return this.sum.get (); }
+
+    /**
+     * @return the highest value recorded; 0 if none
+     */
+    long max () { return this.max.get (); }
+
+    /**
+     * @return the mean of the values recorded; 0 if none
+     */
+    long mean ()
+    {
+        final long count = count ();
+        return (0L == count) ? 0L : this.sum.get () / count;
+    }
+
+    /**
+     * The method that returns a percentile of the values recorded.
+     *
+     * <p>As values keep being recorded while computing it, it is an
+     * estimate: the middle of the bucket the percentile falls in</p>
+     * @param percentile is the percentile, between 0 and 100
+     * @return the matching value; 0 if none
+     */
+    long percentile (double percentile)
+    {
+        Preconditions.checkArgument (
+            (0.0d <= percentile) && (100.0d >= percentile),
+            "bad percentile: %s", percentile);
+        final long count = count ();
+        if (0L == count) return 0L;
+        final long rank = Math.max (
+            1L, (long) Math.ceil (percentile * count / 100.0d));
+        long seen = 0L;
+        for (int index = 0; index < BUCKETS; index++)
+        {
+            seen += this.buckets.get (index);
+            if (seen >= rank)
+            {
+                final long low = lowestOf (index);
+                final long high = (BUCKETS - 1 == index) ?
+                    Long.MAX_VALUE : lowestOf (index + 1) - 1L;
+                return Math.min (this.max.get (), low + (high - low) / 2L);
+            }
+        }
+        return this.max.get ();
+    }
+
+    /**
+     * The method that returns the index of the bucket of a value
+     */
+    private static int indexOf (long value)
+    {
+        if (LINEAR > value) return (int) value;
+        // the magnitude is at least 7 as values are at least 128
+        final int magnitude = 63 - Long.numberOfLeadingZeros (value);
+        final int sub = (int) (value >>> (magnitude - 6)); // 64 to 127
+        return (magnitude - 5) * SUBBUCKETS + (sub - SUBBUCKETS);
+    }
+
+    /**
+     * The method that returns the lowest value of a bucket
+     */
+    private static long lowestOf (int index)
+    {
+        if (LINEAR > index) return index;
+        final int magnitude = index / SUBBUCKETS + 5;
+        final long sub = SUBBUCKETS + (index % SUBBUCKETS);
+        return sub << (magnitude - 6);
+    }
+
+    private LatencyHistogram ()
+    {
+        this.buckets = new AtomicLongArray (BUCKETS);
+        this.sum = new AtomicLong ();
+        this.max = new AtomicLong ();
+    }
+    private final AtomicLongArray buckets;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * The class that carries the files of a directory.
+ *
+ * <p>The files are read at once, with their attributes, and kept in arrays
+ * sorted by base name (the file name with no extension) so that a file can
+ * be located with its expected name or, when missing, with another
+ * extension.<br>
+ * Sub-directories are ignored.</p>
+ */
+final class Listing
+{
+    /**
+     * The listing of a missing directory
+     */
+    static final Listing MISSING = new Listing (
+        false, new String [0], new String [0], new long [0], new long [0]);
+
+    /**
+     * The file read from the directory
+     */
+    private static final class Entry
+    {
+        final String name;
+        final String base;
+        final long size;
+        final long modified;
+        private Entry (String name, long size, long modified)
+        {
+            this.name = name;
+            this.base = Checks.baseOf (name);
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static final Comparator <Entry> BYBASE = new Comparator<Entry> ()
+    {
+        @Override
+        public int compare (Entry o1, Entry o2)
+        {
+            return o1.base.compareTo (o2.base);
+        }
+    };
+
+    /**
+     * The method that reads the files in a directory.
+     *
+     * <p>The attributes are the ones returned with the directory entries,
+     * sparing a round trip per file where the file system supports it</p>
+     * @param dir is the directory to read
+     * @return the matching listing; {@link #MISSING} if there is no such
+     * directory
+     * @throws IOException when failing to read the directory
+     */
+    static Listing of (Path dir) throws IOException
+    {
+        Preconditions.checkNotNull (dir, "null dir supplied");
+        final List <Entry> entries = Lists.newArrayList ();
+        try
+        {
+            Files.walkFileTree (dir, EnumSet.noneOf (FileVisitOption.class),
+                1, new SimpleFileVisitor <Path> ()
+                {
+                    @Override
+                    public FileVisitResult visitFile (
+                        Path file, BasicFileAttributes attrs)
+                    {
+                        if (! attrs.isDirectory ())
+                        {
+                            entries.add (new Entry (
+                                file.getFileName ().toString (),
+                                attrs.size (),
+                                attrs.lastModifiedTime ().toMillis ()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        }
+        catch (NoSuchFileException e)
+        {
+            return MISSING;
+        }
+        Entry [] sorted = entries.toArray (new Entry [entries.size ()]);
+        Arrays.sort (sorted, BYBASE);
+        final int size = sorted.length;
+        String [] bases = new String [size];
+        String [] names = new String [size];
+        long [] sizes = new long [size];
+        long [] modified = new long [size];
+        for (int index = 0; index < size; index++)
+        {
+            bases [index] = sorted [index].base;
+            names [index] = sorted [index].name;
+            sizes [index] = sorted [index].size;
+            modified [index] = sorted [index].modified;
+        }
+        return new Listing (true, bases, names, sizes, modified);
+    }
+
+    /**
+     * Whether the directory exists
+     */
+    final boolean exists;
+
+    /**
+     * The method that locates a file in the directory.
+     *
+     * <p>It behaves as probing the file system would: it returns the file
+     * with the expected name if any and, otherwise, the last modified file
+     * sharing the same base name</p>
+     * @param path is the expected path of the file
+     * @return the matching location
+     */
+    Checks.Location locate (Path path)
+    {
+        final String name = path.getFileName ().toString ();
+        final String base = Checks.baseOf (name);
+        int index = Arrays.binarySearch (this.bases, base);
+        if (0 > index)
+        {
+            return Checks.Location.missing (path);
+        }
+        // moves to the first file sharing the base name
+        while ((0 < index) && (this.bases [index - 1].equals (base)))
+        {
+            index--;
+        }
+        int found = -1;
+        final int size = this.bases.length;
+        for (; (index < size) && (this.bases [index].equals (base)); index++)
+        {
+            if (this.names [index].equals (name))
+            {
+                return Checks.Location.found (path, this.sizes [index]);
+            }
+            if ((-1 == found) ||
+                (this.modified [index] > this.modified [found]))
+            {
+                found = index;
+            }
+        }
+        assert -1 != found;
+        return Checks.Location.found (
+            path.resolveSibling (this.names [found]), this.sizes [found]);
+    }
+
+    private Listing (
+        boolean exists, String [] bases, String [] names,
+        long [] sizes, long [] modified)
+    {
+        this.exists = exists;
+        this.bases = bases;
+        this.names = names;
+        this.sizes = sizes;
+        this.modified = modified;
+    }
+    private final String [] bases;
+    private final String [] names;
+    private final long [] sizes;
+    private final long [] modified;
+}
@@ -18,30 +18,37 @@ package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.config
     .JDBCConfig;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.config
     .parser.JDBCXMLParser;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.DCReader;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.JDBCConnection;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.StoresReader;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.TicketsReader;
 
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Multiset;
-import com.google.common.collect.TreeMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import javax.xml.stream.XMLStreamException;
 
-import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 
@@ -66,6 +73,7 @@ public final class Main
         , ERR_SQL
         , ERR_CANCELLED
         , ERR_OTHER
+        , ERR_INTERRUPTED
     }
 
     private static final class ExitException extends RuntimeException
@@ -109,12 +117,129 @@ public final class Main
     {
         System.out.println (
             "usage: java -jar bad-contents-lister-full.jar " +
-                "[--config | -C ${config}] [--help | -H]");
+                "[--config | -C ${config}] [--threads | -T ${count}] " +
+                "[--inflight | -F ${count} [--adaptive | -A]] " +
+                "[--listing | -L] " +
+                "[--prefetch | -D ${rows} [--prefetch-dirs | -M ${count}]] " +
+                "[--inventory | -I ${file} [--walk | -W]] " +
+                "[--orphans | -O] [--parentless | -P] " +
+                "[--hash | -X ${count} [--hash-rate | -R ${bytes}]] " +
+                "[--checkpoint | -K ${file} [--resume | -U]] " +
+                "[--delta | -E ${file} [--slices | -S ${count}]] " +
+                "[--connections | -J ${count}] [--lean | -N] " +
+                "[--batch | -B ${count}] [--results | -Y ${file}] " +
+                "[--diff | -G ${file}] [--metrics | -Q ${prefix}] " +
+                "[--help | -H]");
         System.out.println ("where:");
         System.out.println (
             " --config (-C) ${config} is the path to an XML");
         System.out.println (
             "  file carrying information about the database to connect to");
+        System.out.println (
+            " --threads (-T) ${count} is the number of threads checking");
+        System.out.println (
+            "  files; when supplied, reading, checking and reporting run");
+        System.out.println (
+            "  in parallel");
+        System.out.println (
+            " --inflight (-F) ${count} is the max number of files being");
+        System.out.println (
+            "  checked at once, each by a task of its own; it suits slow");
+        System.out.println (
+            "  network mounts and supersedes --threads");
+        System.out.println (
+            " --adaptive (-A) to adapt the number of files being checked");
+        System.out.println (
+            "  at once to the file system's latency, up to --inflight");
+        System.out.println (
+            " --listing (-L) to read each directory once rather than");
+        System.out.println (
+            "  probing each file");
+        System.out.println (
+            " --prefetch (-D) ${rows} is the number of contents to look");
+        System.out.println (
+            "  ahead, reading their directories before they get checked");
+        System.out.println (
+            " --prefetch-dirs (-M) ${count} is the max number of");
+        System.out.println (
+            "  directory listings to keep in memory when prefetching");
+        System.out.println (
+            " --inventory (-I) ${file} is the path to the inventory of");
+        System.out.println (
+            "  the stores' files; if missing, stores are walked to create");
+        System.out.println (
+            "  it. Files are then looked for in the inventory");
+        System.out.println (
+            " --walk (-W) to walk the stores and save the inventory");
+        System.out.println (
+            "  without checking the contents");
+        System.out.println (
+            " --orphans (-O) to list the files no content refers to,");
+        System.out.println (
+            "  rather than checking the contents");
+        System.out.println (
+            " --parentless (-P) to check contents with no parent as well");
+        System.out.println (
+            " --hash (-X) ${count} is the number of threads computing");
+        System.out.println (
+            "  the (SHA-1) digest of files to compare with the contents'");
+        System.out.println (
+            "  hash; digests of contents with no hash are recorded");
+        System.out.println (
+            " --hash-rate (-R) ${bytes} is the max number of bytes to");
+        System.out.println (
+            "  read per second when computing digests");
+        System.out.println (
+            " --checkpoint (-K) ${file} is the path to the file recording");
+        System.out.println (
+            "  the scan's progress; contents are then read page by page");
+        System.out.println (
+            " --resume (-U) to resume the scan recorded in the checkpoint");
+        System.out.println (
+            "  file, appending to the same logs");
+        System.out.println (
+            " --delta (-E) ${file} is the path to the manifest of the");
+        System.out.println (
+            "  previous runs; only the contents set since, the ones that");
+        System.out.println (
+            "  failed and a slice of the others are then checked");
+        System.out.println (
+            " --slices (-S) ${count} is the number of slices the contents");
+        System.out.println (
+            "  are divided into, one being checked in each delta run");
+        System.out.println (
+            "  (defaults to " + DEFAULT_SLICES + ")");
+        System.out.println (
+            " --connections (-J) ${count} is the number of connections");
+        System.out.println (
+            "  reading ranges of contents concurrently");
+        System.out.println (
+            " --lean (-N) to read contents without their parent's data,");
+        System.out.println (
+            "  looked for on errors only");
+        System.out.println (
+            " --batch (-B) ${count} is the number of contents read and");
+        System.out.println (
+            "  checked at once, as columns (implies --lean)");
+        System.out.println (
+            " --results (-Y) ${file} is the path to the binary file");
+        System.out.println (
+            "  recording the result of every check, OK ones included");
+        System.out.println (
+            "  (not with --resume nor --delta)");
+        System.out.println (
+            " --diff (-G) ${file} is the path to the results file of a");
+        System.out.println (
+            "  previous run to compare with the --results one, reporting");
+        System.out.println (
+            "  the contents that broke, got fixed or changed failure");
+        System.out.println (
+            " --metrics (-Q) ${prefix} is the prefix of the files the");
+        System.out.println (
+            "  scan's metrics are dumped into every " + METRICS_PERIOD +
+            " seconds, as JSON");
+        System.out.println (
+            "  (.json) and as OpenMetrics text (.prom)");
         System.out.println (
             " --help (-H) to display help");
         System.out.flush ();
@@ -180,27 +305,563 @@ public final class Main
         return JDBCConnection.create (cnx, config.schema);
     }
 
-    private static CSVWriter makeLog (String user) throws FileNotFoundException
+    private static CSVWriter makeLog (String user) throws IOException
     {
+        return openLog (
+            logOf (user, Optional.<Checkpoint.Log>absent ()),
+            Optional.<Checkpoint.Log>absent ());
+    }
+
+    /**
+     * The method that returns the log file
+     * @param user is the prefix of the log file's name
+     * @param resumed is the log recorded in the checkpoint if resuming
+     * @return the log file
+     */
+    private static File logOf (String user, Optional <Checkpoint.Log> resumed)
+    {
+        if (resumed.isPresent ())
+        {
+            return new File (resumed.get ().path);
+        }
         DateTime now = DateTime.now (DateTimeZone.UTC);
         String name = user + "-" +
             ISODateTimeFormat.basicDateTimeNoMillis ().print (now) + ".log";
-        File file = new File (name).getAbsoluteFile ();
-        System.out.println ("logging into " + file.getPath ());
-        PrintWriter printer = new PrintWriter (file);
-        return CSVWriter.create (printer, '|');
+        return new File (name).getAbsoluteFile ();
+    }
+
+    /**
+     * The method that opens a log.
+     *
+     * <p>When resuming, the log is truncated to the length recorded in the
+     * checkpoint and appended to</p>
+     * @param file is the log file
+     * @param resumed is the log recorded in the checkpoint if resuming
+     * @return the writer
+     * @throws IOException when opening the file
+     */
+    private static CSVWriter openLog (
+        File file, Optional <Checkpoint.Log> resumed) throws IOException
+    {
+        final FileChannel channel;
+        if (! resumed.isPresent ())
+        {
+            System.out.println ("logging into " + file.getPath ());
+            channel = FileChannel.open (file.toPath (),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        else
+        {
+            System.out.println ("resuming log " + file.getPath ());
+            channel = FileChannel.open (
+                file.toPath (), StandardOpenOption.WRITE);
+            try
+            {
+                channel.truncate (resumed.get ().length);
+                channel.position (resumed.get ().length);
+            }
+            catch (IOException e)
+            {
+                channel.close ();
+                throw e;
+            }
+        }
+        return CSVWriter.create (channel, '|');
+    }
+
+    /**
+     * The expected number of contents in each partition when reading
+     * contents concurrently: partitions are read in full, a few at a time
+     * per connection
+     */
+    private static final long PARTITION = 8192L;
+
+    /**
+     * The time between dumps of the metrics, in seconds
+     */
+    private static final long METRICS_PERIOD = 10L;
+
+    /**
+     * The time between progress reports, in seconds
+     */
+    private static final long PROGRESS_PERIOD = 30L;
+
+    /**
+     * The method that returns the connections to read contents with
+     * @param options carries the options
+     * @param from is the connection already opened
+     * @param config is the configuration to open more connections
+     * @param pwd is the password
+     * @return the connections, starting with the one already opened
+     * @throws SQLException when opening a connection
+     */
+    private static List <JDBCConnection> connections (
+        Options options, JDBCConnection from,
+        JDBCConfig config, String pwd) throws SQLException
+    {
+        final Optional <Integer> count = options.connections;
+        List <JDBCConnection> connections = Lists.newArrayList (from);
+        if (! count.isPresent ())
+        {
+            return connections;
+        }
+        try
+        {
+            while (connections.size () < count.get ())
+            {
+                connections.add (create (config, pwd));
+            }
+            return connections;
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            for (JDBCConnection extra :
+                connections.subList (1, connections.size ()))
+            {
+                extra.close ();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The method that returns the recorder of a delta run if requested
+     * @param options carries the options
+     * @param jdbc provides access to the database: its time, before any
+     *             content is read, is the next run's watermark
+     * @return the recorder if any
+     * @throws IOException when reading the manifest
+     */
+    private static Optional <Manifest.Recorder> recorder (
+        Options options, JDBCConnection jdbc)
+        throws IOException
+    {
+        final Optional <Path> file = options.delta;
+        final Optional <Integer> slices = options.slices;
+        if (! file.isPresent ())
+        {
+            return Optional.absent ();
+        }
+        Optional <Manifest> manifest = Manifest.read (file.get ());
+        if (manifest.isPresent ())
+        {
+            manifest = Optional.of (manifest.get ().withSlices (
+                slices.or (manifest.get ().slices)));
+            System.out.println ("checking contents changed since " +
+                manifest.get ());
+        }
+        else
+        {
+            System.out.println (
+                "there is no manifest " + file.get () + ": checking all");
+        }
+        return Optional.of (Manifest.record (
+            manifest, slices.or (DEFAULT_SLICES), DCReader.now (jdbc)));
+    }
+
+    /**
+     * The default number of slices the contents are divided into for delta
+     * runs
+     */
+    private static final int DEFAULT_SLICES = 30;
+
+    /**
+     * The method that returns the checkpoint to resume from if requested
+     * @param options carries the options
+     * @return the checkpoint if any
+     * @throws IOException when reading the checkpoint
+     */
+    private static Optional <Checkpoint> resumed (Options options)
+        throws IOException
+    {
+        if (! options.resume)
+        {
+            return Optional.absent ();
+        }
+        final Path file = options.checkpoint.get ();
+        final Optional <Checkpoint> checkpoint = Checkpoint.read (file);
+        System.out.println (checkpoint.isPresent () ?
+            "resuming from " + checkpoint.get () :
+            "there is no checkpoint " + file + ": starting over");
+        return checkpoint;
     }
+
+    /**
+     * The method that returns the inventory of files if requested.
+     *
+     * <p>The inventory is read from the file supplied with the
+     * {@link Command#INVENTORY} command if it exists. Otherwise, or when the
+     * {@link Command#WALK} command is supplied, the stores are walked and the
+     * inventory is saved into that file</p>
+     * @param options carries the options
+     * @param stores carries the stores
+     * @return the inventory if any
+     * @throws IOException when reading or writing the inventory
+     * @throws InterruptedException if interrupted while walking the stores
+     */
+    private static Optional <Inventory> inventory (
+        Options options, Stores stores)
+        throws IOException, InterruptedException
+    {
+        final boolean walk = options.walk;
+        if (! options.inventory.isPresent ())
+        {
+            return Optional.absent ();
+        }
+        final Path file = options.inventory.get ().toAbsolutePath ();
+        Stopwatch watch = Stopwatch.createStarted ();
+        if ((! walk) && (Files.exists (file)))
+        {
+            Inventory inventory = Inventory.read (file);
+            System.out.println (
+                "spent " + watch.stop () + " to read " + inventory.size () +
+                    " files from " + file);
+            return Optional.of (inventory);
+        }
+        Inventory inventory =
+            InventoryWalker.walk (stores, options.walkers ());
+        inventory.write (file);
+        System.out.println (
+            "spent " + watch.stop () + " to save " + inventory.size () +
+                " files into " + file);
+        return Optional.of (inventory);
+    }
+
+    /**
+     * The method that returns the prefetcher reading directories ahead if
+     * requested
+     * @param options carries the options
+     * @param stores carries the stores
+     * @param metrics records the time reading directories takes
+     * @return the prefetcher if any
+     */
+    private static Optional <Prefetcher> prefetcher (
+        Options options, Stores stores, Metrics metrics)
+    {
+        final Optional <Integer> rows = options.prefetch;
+        if (! rows.isPresent ())
+        {
+            return Optional.absent ();
+        }
+        // each content ahead or being checked may be in its own directory
+        return Optional.of (Prefetcher.create (stores, rows.get (),
+            options.prefetchdirs.or (rows.get () + options.workers () + 1),
+            Math.max (2, Runtime.getRuntime ().availableProcessors ()),
+            Optional.of (metrics)));
+    }
+
+    /**
+     * The method that returns the hasher computing files' digest if
+     * requested
+     * @param options carries the options
+     * @return the hasher if any
+     */
+    private static Optional <Hasher> hasher (Options options)
+    {
+        final Optional <Integer> threads = options.hash;
+        if (! threads.isPresent ())
+        {
+            return Optional.absent ();
+        }
+        return Optional.of (
+            Hasher.create ("SHA-1", threads.get (), options.hashrate));
+    }
+
+    /**
+     * The method that lists the files no content refers to
+     * @param from provides access to the database
+     * @param stores carries the stores
+     * @param threads is the number of threads walking the stores
+     * @param user is the user to name the log after
+     * @throws IOException when reading the stores' directories
+     * @throws InterruptedException if interrupted while walking the stores
+     */
+    private static void orphans (
+        JDBCConnection from, Stores stores, int threads, String user)
+        throws IOException, InterruptedException
+    {
+        Stopwatch watch = Stopwatch.createStarted ();
+        ImmutableMap <String, TicketSet> tickets = TicketsReader.read (from);
+        System.out.println (
+            "spent " + watch.stop () + " to load tickets: " + tickets);
+        watch.reset ().start ();
+        try (CSVWriter writer = makeLog (user + "-orphans"))
+        {
+            long count = OrphansFinder.find (stores, tickets, threads, writer);
+            System.out.println (
+                "spent " + watch.stop () + " to find " + count + " orphans");
+            System.out.println ("bye");
+        }
+    }
+
+    /**
+     * The method that checks all contents, reporting the errors
+     * @param from provides access to the database: contents are read
+     *             concurrently when there are several connections
+     * @param stores carries the stores
+     * @param checker performs the checks
+     * @param options carries the options: how contents are read and
+     *                checked
+     * @param prefetcher reads directories ahead if any
+     * @param writer writes the errors
+     * @param enricher writes the errors of a lean scan if any: contents
+     *                 are then read without their parent's meta data
+     * @param digests records the digests of files whose content has no
+     *                hash, if any
+     * @param tracker saves the checkpoints if any
+     * @param recorder records the results for the next delta run if any
+     * @param results records the result of every check if any
+     * @param metrics records the results by code and the latencies
+     * @param counter counts the contents of each store, for the progress
+     *                reports, if any
+     * @throws InterruptedException if interrupted while checking in
+     * parallel
+     */
+    private static void check (
+        List <JDBCConnection> from, final Stores stores,
+        Checks.ContentsChecker checker, Options options,
+        Optional <Prefetcher> prefetcher, final CSVWriter writer,
+        final Optional <Enricher> enricher,
+        final Optional <CSVWriter> digests,
+        final Optional <Checkpoint.Tracker> tracker,
+        final Optional <Manifest.Recorder> recorder,
+        final Optional <ResultsLog.Writer> results, final Metrics metrics,
+        Optional <JDBCConnection> counter)
+        throws InterruptedException
+    {
+        final CodeCounters codes = metrics.codes;
+        final Optional <Checkpoint> resumed = tracker.isPresent () ?
+            tracker.get ().resumed : Optional.<Checkpoint>absent ();
+        if (resumed.isPresent ())
+        {
+            codes.addAll (resumed.get ().codes);
+        }
+        Stopwatch watch = Stopwatch.createStarted ();
+        final Optional <Integer> threads = options.threads;
+        final Optional <Integer> inflight = options.inflight;
+        final Optional <AdaptiveLimit> limit = options.adaptive ?
+            Optional.of (AdaptiveLimit.create (
+                Math.min (16, inflight.get ()), 1, inflight.get ())) :
+            Optional.<AdaptiveLimit>absent ();
+        final Progress progress = Progress.start (
+            stores, codes, limit, resumed, PROGRESS_PERIOD);
+        if (counter.isPresent ())
+        {
+            progress.counting (counter.get ());
+        }
+        final Pipeline.Sink sink = new Pipeline.Sink ()
+        {
+            @Override
+            public void accept (
+                DecoratedContent dc, Checks.Result result, long latency)
+            {
+                if (tracker.isPresent ())
+                {
+                    tracker.get ().accept (dc.content, codes);
+                }
+                final int store = dc.content.storeIndex;
+                progress.checked (store);
+                if (0L != latency)
+                {
+                    metrics.record (Metrics.Stage.PROBE, store, latency);
+                }
+                if (results.isPresent ())
+                {
+                    results.get ().accept (dc.content, result, latency);
+                }
+                final Checks.Code code = result.code;
+                codes.add (code);
+                if (recorder.isPresent ())
+                {
+                    recorder.get ().accept (dc.content, code);
+                }
+                if (code != Checks.Code.OK)
+                {
+                    // we've got an error then ....
+                    if (enricher.isPresent ())
+                    {
+                        enricher.get ().writeError (dc, result);
+                    }
+                    else
+                    {
+                        writer.writeError (dc, result);
+                    }
+                }
+                else if ((digests.isPresent ()) &&
+                    (! dc.content.hash.isPresent ()) &&
+                    (result instanceof Checks.Result.Digest))
+                {
+                    digests.get ().writeDigest (
+                        dc, (Checks.Result.Digest) result);
+                }
+            }
+        };
+        final Optional <Manifest> previous = recorder.isPresent () ?
+            recorder.get ().previous : Optional.<Manifest>absent ();
+        final JDBCConnection jdbc = from.get (0);
+        final boolean lean = enricher.isPresent ();
+        final boolean parentless = options.parentless;
+        final long count;
+        if (options.batch.isPresent ())
+        {
+            try (CloseableIterator <ContentBatch> reader = DCReader.batches (
+                 jdbc, stores, parentless, options.batch.get ()))
+            {
+                count = Pipeline.batched (
+                    progress.readingBatches (
+                        metrics.fetchingBatches (reader)), checker,
+                    new Pipeline.BatchSink ()
+                    {
+                        @Override
+                        public void accept (
+                            ContentBatch rows, int row, Checks.Result result,
+                            long latency)
+                        {
+                            if (Checks.Result.OK == result)
+                            {
+                                // no content to create then
+                                progress.checked (rows.storeIndex (row));
+                                if (0L != latency)
+                                {
+                                    metrics.record (Metrics.Stage.PROBE,
+                                        rows.storeIndex (row), latency);
+                                }
+                                if (results.isPresent ())
+                                {
+                                    results.get ().accept (
+                                        rows.storeIndex (row),
+                                        rows.ticket (row), rows.size (row),
+                                        result, latency);
+                                }
+                                codes.add (Checks.Code.OK);
+                            }
+                            else
+                            {
+                                sink.accept (
+                                    rows.decorated (row), result, latency);
+                            }
+                        }
+                    });
+            }
+        }
+        else
+        {
+            try (CloseableIterator <DecoratedContent> reader =
+                 tracker.isPresent () ?
+                     DCReader.paged (
+                         jdbc, stores, parentless, lean, resumed) :
+                 previous.isPresent () ?
+                     DCReader.delta (
+                         jdbc, stores, parentless, lean, previous.get ()) :
+                 (1 < from.size ()) ?
+                     DCReader.partitioned (
+                         from, stores, parentless, lean, PARTITION) :
+                     DCReader.reader (jdbc, stores, parentless, lean))
+            {
+                final Iterator <DecoratedContent> fetched =
+                    progress.reading (metrics.fetching (reader));
+                final Iterator <DecoratedContent> it =
+                    prefetcher.isPresent () ?
+                        prefetcher.get ().ahead (fetched) : fetched;
+                if (inflight.isPresent ())
+                {
+                    count = Pipeline.concurrent (it, checker, sink,
+                        limit.isPresent () ? limit.get () :
+                            Pipeline.fixed (inflight.get ()),
+                        inflight.get () * 4);
+                }
+                else if (threads.isPresent ())
+                {
+                    count = Pipeline.parallel (it, checker, sink,
+                        threads.get (), threads.get () * 256);
+                }
+                else
+                {
+                    count = Pipeline.sequential (it, checker, sink);
+                }
+            }
+        }
+        progress.finish ();
+        if (tracker.isPresent ())
+        {
+            tracker.get ().finish ();
+        }
+        System.out.println (
+            "spent " + watch.stop () +
+            " to read " + count + " d.c.");
+        System.out.println ("stats: " + codes);
+        System.out.println ("bye");
+    }
+
+    /**
+     * The method that compares the results of 2 runs, reporting the
+     * differences into a log
+     * @param cmds carries the commands
+     * @throws IOException when reading the results or writing the log
+     */
+    private static void diff (Map <Command, Optional <String>> cmds)
+        throws IOException
+    {
+        Preconditions.checkArgument (
+            cmds.containsKey (Command.RESULTS),
+            "command %s requires command %s", Command.DIFF, Command.RESULTS);
+        final Stopwatch watch = Stopwatch.createStarted ();
+        final File log = logOf ("diff", Optional.<Checkpoint.Log>absent ());
+        System.out.println ("logging into " + log.getPath ());
+        final ResultsDiff.Summary summary;
+        try (ResultsLog.Reader older = ResultsLog.read (
+                 Paths.get (cmds.get (Command.DIFF).get ()));
+             ResultsLog.Reader newer = ResultsLog.read (
+                 Paths.get (cmds.get (Command.RESULTS).get ()));
+             TextEncoder out = TextEncoder.create (FileChannel.open (
+                 log.toPath (), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING), 1 << 20, '|'))
+        {
+            summary = ResultsDiff.diff (older, newer,
+                new ResultsDiff.Listener ()
+                {
+                    @Override
+                    public void accept (ResultsDiff.Kind kind, String store,
+                        int ticket, Checks.Code before, Checks.Code after)
+                        throws IOException
+                    {
+                        out.ascii (store).separator ().
+                            number (ticket).separator ().
+                            ascii (kind.name ()).separator ().
+                            ascii ((null == before) ? "" : before.name ()).
+                            separator ().
+                            ascii ((null == after) ? "" : after.name ()).
+                            newLine ();
+                    }
+                });
+        }
+        System.out.println (
+            "spent " + watch.stop () + " to compare results");
+        System.out.println ("diff: " + summary);
+        System.out.println ("bye");
+    }
+
     public static void main (String[] args)
     {
         try
         {
             Map<Command, Optional<String>> cmds = Command.parse (args);
+            if ((! cmds.containsKey (Command.HELP)) &&
+                (cmds.containsKey (Command.DIFF)))
+            {
+                // no need for the database then
+                diff (cmds);
+                return;
+            }
             if ((cmds.containsKey (Command.HELP)) ||
                 (! cmds.containsKey (Command.CONFIG)))
             {
                 usage ();
                 return;
             }
+            final Options options = Options.of (cmds);
             final JDBCConfig config =
                 config (cmds.get (Command.CONFIG).get ());
 
@@ -214,46 +875,139 @@ public final class Main
                 }
                 pwd = opt.get ();
             }
-            try (JDBCConnection from = create (config, pwd);
-                 CSVWriter writer = makeLog (config.user))
+            try (JDBCConnection from = create (config, pwd))
             {
                 Stopwatch watch = Stopwatch.createStarted ();
                 Stores stores = StoresReader.STORESREADER.apply (from);
                 System.out.println (
                     "spent " + watch.stop () + " to load stores");
-                final Function <DecoratedContent, Checks.Result> checker =
-                    Checks.checker (stores);
-                final Multiset <Checks.Code> codes = TreeMultiset.create ();
-                watch.reset ().start ();
-                ResponseUI rui = ResponseUI.create (1024, 64);
-                try (CloseableIterator <DecoratedContent> it =
-                     DCReader.reader (from, stores))
+                final Optional <Inventory> inventory =
+                    inventory (options, stores);
+                if (options.walk)
                 {
-                    long count = 0L;
-                    while (it.hasNext ())
+                    System.out.println ("bye");
+                    return;
+                }
+                if (options.orphans)
+                {
+                    orphans (from, stores, options.walkers (), config.user);
+                    return;
+                }
+                final Metrics metrics = Metrics.create (stores);
+                final Optional <Prefetcher> prefetcher =
+                    inventory.isPresent () ? Optional.<Prefetcher>absent () :
+                        prefetcher (options, stores, metrics);
+                Checks.Locator locator = Checks.pruning (
+                    prefetcher.isPresent () ? prefetcher.get () :
+                    options.listing ? Checks.listing (
+                        options.workers () + 1, Optional.of (metrics)) :
+                        Checks.probing ());
+                if (inventory.isPresent ())
+                {
+                    // no need to prune: the inventory knows all files
+                    locator = inventory.get ().locator (
+                        stores, locator);
+                }
+                final Optional <Checkpoint> resumed = resumed (options);
+                final Optional <Manifest.Recorder> recorder =
+                    recorder (options, from);
+                final boolean previous = (recorder.isPresent ()) &&
+                    (recorder.get ().previous.isPresent ());
+                final Optional <Checkpoint.Log> errors = resumed.isPresent () ?
+                    Optional.of (resumed.get ().errors) :
+                    Optional.<Checkpoint.Log>absent ();
+                final Optional <Checkpoint.Log> digested =
+                    resumed.isPresent () ? resumed.get ().digests :
+                        Optional.<Checkpoint.Log>absent ();
+                final File log = logOf (config.user, errors);
+                final File digestlog =
+                    logOf (config.user + "-digests", digested);
+                final List <JDBCConnection> connections =
+                    connections (options, from, config, pwd);
+                try
+                {
+                    try (Hasher hasher = hasher (options).orNull ();
+                         CSVWriter writer = openLog (log, errors);
+                         CSVWriter digests = (null == hasher) ? null :
+                             openLog (digestlog, digested);
+                         JDBCConnection lookups = options.lean ?
+                             create (config, pwd) : null;
+                         Enricher enricher = (null == lookups) ? null :
+                             Enricher.create (lookups, writer);
+                         ResultsLog.Writer results =
+                             options.results.isPresent () ?
+                                 ResultsLog.create (
+                                     options.results.get (), stores) :
+                                 null;
+                         // delta runs check a part of the contents only;
+                         // batch runs read with a single connection
+                         JDBCConnection counter =
+                             (previous || options.batch.isPresent ()) ? null :
+                                 create (config, pwd))
                     {
-                        DecoratedContent dc = it.next ();
-                        count++;
-                        final Checks.Result result = checker.apply (dc);
-                        assert null != result;
-                        rui.onResponse (result);
-                        final Checks.Code code = result.code;
-                        codes.add (code);
-                        if (code != Checks.Code.OK)
+                        final Optional <Checkpoint.Tracker> tracker =
+                            options.checkpoint.isPresent () ?
+                                Optional.of (Checkpoint.track (
+                                    options.checkpoint.get (),
+                                    resumed, log, (null == hasher) ?
+                                        Optional.<File>absent () :
+                                        Optional.of (digestlog),
+                                    (null == digests) ?
+                                        ImmutableList.of (writer) :
+                                        ImmutableList.of (writer, digests))) :
+                                Optional.<Checkpoint.Tracker>absent ();
+                        final Optional <Metrics.Dumper> dumper =
+                            options.metrics.isPresent () ?
+                                Optional.of (metrics.dumping (
+                                    options.metrics.get (), METRICS_PERIOD)) :
+                                Optional.<Metrics.Dumper>absent ();
+                        try
                         {
-                            // we've got an error then ....
-                            writer.writeError (dc, result);
+                            check (connections, stores, Checks.checker (
+                                stores, locator,
+                                Optional.fromNullable (hasher)), options,
+                                prefetcher, writer,
+                                Optional.fromNullable (enricher),
+                                Optional.fromNullable (digests), tracker,
+                                recorder, Optional.fromNullable (results),
+                                metrics, Optional.fromNullable (counter));
+                        }
+                        finally
+                        {
+                            // dumps the metrics a last time
+                            if (dumper.isPresent ())
+                            {
+                                dumper.get ().close ();
+                            }
                         }
                     }
-                    rui.finish ();
-                    System.out.println (
-                        "spent " + watch.stop () +
-                        " to read " + count + " d.c.");
-                    System.out.println ("stats: " + codes);
-                    System.out.println ("bye");
+                }
+                finally
+                {
+                    if (prefetcher.isPresent ())
+                    {
+                        prefetcher.get ().close ();
+                    }
+                    for (JDBCConnection extra :
+                        connections.subList (1, connections.size ()))
+                    {
+                        extra.close ();
+                    }
+                }
+                if (recorder.isPresent ())
+                {
+                    final Manifest manifest = recorder.get ().build ();
+                    manifest.write (options.delta.get ());
+                    System.out.println ("saved manifest " + manifest);
                 }
             }
         }
+        catch (InterruptedException e)
+        {
+            e.printStackTrace (System.err);
+            System.err.flush ();
+            System.exit (RetCode.ERR_INTERRUPTED.ordinal ());
+        }
         catch (SQLException e)
         {
             e.printStackTrace (System.err);
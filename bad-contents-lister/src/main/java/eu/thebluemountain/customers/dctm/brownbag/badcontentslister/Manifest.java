@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The class that carries the outcome of the previous runs, of use when
+ * checking only the contents that may have changed since.
+ *
+ * <p>A delta run checks:
+ * <ul>
+ *  <li>the contents set after the watermark: the database's time when the
+ *  previous run started reading contents</li>
+ *  <li>the contents that failed in the previous run</li>
+ *  <li>a slice of the other contents (the ones whose ticket modulo the
+ *  number of slices is the run's slice) so that all contents get checked
+ *  again over the runs</li>
+ * </ul>
+ * As contents that failed are checked again in each run, the failures of a
+ * run are the cumulative status of the contents: the other contents were
+ * OK when last checked.<br>
+ * The manifest is saved as a compact binary file, replaced atomically.</p>
+ */
+public final class Manifest
+{
+    /**
+     * The magic number at the start of manifest files
+     */
+    private static final int MAGIC = 0x4443524D;
+
+    /**
+     * The version of the manifest file's format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The failures of a store: tickets with the matching code, in ticket's
+     * (signed) order
+     */
+    public static final class Failures
+    {
+        /**
+         * The store's identifier
+         */
+        public final String store;
+
+        /**
+         * The number of failures
+         */
+        public final int size;
+
+        /**
+         * The method that returns a failing ticket
+         * @param index is the failure's index
+         * @return the ticket
+         */
+        public int ticket (int index)
+        {
+            Preconditions.checkElementIndex (index, this.size);
+            return this.tickets [index];
+        }
+
+        /**
+         * The method that returns the code of a failing ticket if any
+         * @param ticket is the ticket
+         * @return the code; absent if the ticket did not fail
+         */
+        public Optional <Checks.Code> codeOf (int ticket)
+        {
+            int index = Arrays.binarySearch (
+                this.tickets, 0, this.size, ticket);
+            return (0 > index) ? Optional.<Checks.Code>absent () :
+                Optional.of (CODES [this.codes [index]]);
+        }
+
+        /**
+         * @return the tickets, in ticket's order
+         */
+        public int [] tickets ()
+        {
+            return Arrays.copyOf (this.tickets, this.size);
+        }
+
+        private Failures (
+            String store, int size, int [] tickets, byte [] codes)
+        {
+            this.store = store;
+            this.size = size;
+            this.tickets = tickets;
+            this.codes = codes;
+        }
+        private final int [] tickets;
+        private final byte [] codes; // the codes' ordinals
+    }
+
+    /**
+     * The codes, by ordinal
+     */
+    private static final Checks.Code [] CODES = Checks.Code.values ();
+
+    /**
+     * The database's time when the run started reading contents, in
+     * milliseconds: contents set afterwards may not have been checked
+     */
+    public final long watermark;
+
+    /**
+     * The number of slices the contents are divided into
+     */
+    public final int slices;
+
+    /**
+     * The slice to check in the next run
+     */
+    public final int slice;
+
+    /**
+     * The number of runs so far
+     */
+    public final int runs;
+
+    /**
+     * The failures, by store's identifier
+     */
+    public final ImmutableMap <String, Failures> failures;
+
+    /**
+     * The method that indicates whether a content is read by the delta
+     * query: set after the watermark or in the run's slice
+     * @param content is the content
+     * @return whether it is
+     */
+    public boolean covers (Content content)
+    {
+        return ((content.modified.getMillis () > this.watermark) ||
+            (Math.abs (content.ticket % this.slices) == this.slice));
+    }
+
+    /**
+     * @return the total number of failures
+     */
+    public long size ()
+    {
+        long size = 0L;
+        for (Failures current : this.failures.values ())
+        {
+            size += current.size;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "{watermark: " +
+            new DateTime (this.watermark, DateTimeZone.UTC) +
+            ", slice: " + this.slice + '/' + this.slices +
+            ", runs: " + this.runs + ", failures: " + size () + '}';
+    }
+
+    /**
+     * The method that reads a manifest
+     * @param file is the manifest file
+     * @return the manifest; absent if there is no such file
+     * @throws IOException when reading the file
+     */
+    public static Optional <Manifest> read (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        try (DataInputStream in = new DataInputStream (
+            new BufferedInputStream (new GZIPInputStream (
+                Files.newInputStream (file), 1 << 16), 1 << 16)))
+        {
+            if (MAGIC != in.readInt ())
+            {
+                throw new IOException ("not a manifest file: " + file);
+            }
+            final int version = in.readInt ();
+            if (VERSION != version)
+            {
+                throw new IOException (
+                    "unsupported manifest version " + version + ": " + file);
+            }
+            final long watermark = in.readLong ();
+            final int slices = in.readInt ();
+            final int slice = in.readInt ();
+            final int runs = in.readInt ();
+            final int stores = in.readInt ();
+            ImmutableMap.Builder <String, Failures> failures =
+                ImmutableMap.builder ();
+            for (int index = 0; index < stores; index++)
+            {
+                final String store = in.readUTF ();
+                final int size = in.readInt ();
+                int [] tickets = new int [size];
+                byte [] codes = new byte [size];
+                for (int entry = 0; entry < size; entry++)
+                {
+                    tickets [entry] = in.readInt ();
+                    codes [entry] = in.readByte ();
+                }
+                failures.put (
+                    store, new Failures (store, size, tickets, codes));
+            }
+            return Optional.of (new Manifest (
+                watermark, slices, slice, runs, failures.build ()));
+        }
+        catch (NoSuchFileException e)
+        {
+            return Optional.absent ();
+        }
+    }
+
+    /**
+     * The method that writes the manifest.
+     *
+     * <p>It is written to a temporary file and moved over the previous
+     * one</p>
+     * @param file is the manifest file
+     * @throws IOException when writing the file
+     */
+    public void write (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        final Path tmp = file.resolveSibling (file.getFileName () + ".tmp");
+        try (DataOutputStream out = new DataOutputStream (
+            new BufferedOutputStream (new GZIPOutputStream (
+                Files.newOutputStream (tmp), 1 << 16), 1 << 16)))
+        {
+            out.writeInt (MAGIC);
+            out.writeInt (VERSION);
+            out.writeLong (this.watermark);
+            out.writeInt (this.slices);
+            out.writeInt (this.slice);
+            out.writeInt (this.runs);
+            out.writeInt (this.failures.size ());
+            for (Failures current : this.failures.values ())
+            {
+                out.writeUTF (current.store);
+                out.writeInt (current.size);
+                for (int index = 0; index < current.size; index++)
+                {
+                    out.writeInt (current.tickets [index]);
+                    out.writeByte (current.codes [index]);
+                }
+            }
+        }
+        try
+        {
+            Files.move (tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move (tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The method that returns the recorder building the manifest of a run
+     * @param previous is the manifest of the previous run if any
+     * @param slices is the number of slices to divide contents into
+     * @param started is the database's time before the run reads any
+     *                content, in milliseconds: the next watermark
+     * @return the matching recorder
+     */
+    static Recorder record (
+        Optional <Manifest> previous, int slices, long started)
+    {
+        Preconditions.checkNotNull (previous, "null previous supplied");
+        Preconditions.checkArgument (0 < slices, "bad slices: %s", slices);
+        return new Recorder (previous, slices, started);
+    }
+
+    /**
+     * The class that records the results of a run to build the next
+     * manifest.
+     *
+     * <p>It is expected to be invoked by a single thread</p>
+     */
+    static final class Recorder
+    {
+        /**
+         * The manifest of the previous run if any
+         */
+        final Optional <Manifest> previous;
+
+        /**
+         * The method that records the result of a content
+         * @param content is the content
+         * @param code is the content's result
+         */
+        void accept (Content content, Checks.Code code)
+        {
+            if (Checks.Code.OK == code) return;
+            long [] keys = this.bystores.get (content.store);
+            if (null == keys)
+            {
+                keys = new long [16];
+                this.bystores.put (content.store, keys);
+                this.sizes.put (content.store, 0);
+            }
+            int size = this.sizes.get (content.store);
+            if (keys.length == size)
+            {
+                keys = Arrays.copyOf (keys, size * 2);
+                this.bystores.put (content.store, keys);
+            }
+            // the ticket in the high bits: keys sort as tickets do
+            keys [size] = (((long) content.ticket) << 32) | code.ordinal ();
+            this.sizes.put (content.store, size + 1);
+        }
+
+        /**
+         * The method that builds the manifest of the run
+         * @return the manifest
+         */
+        Manifest build ()
+        {
+            ImmutableMap.Builder <String, Failures> failures =
+                ImmutableMap.builder ();
+            for (Map.Entry <String, long []> entry : this.bystores.entrySet ())
+            {
+                final String store = entry.getKey ();
+                final long [] keys = entry.getValue ();
+                final int count = this.sizes.get (store);
+                Arrays.sort (keys, 0, count);
+                int [] tickets = new int [count];
+                byte [] codes = new byte [count];
+                int size = 0;
+                for (int index = 0; index < count; index++)
+                {
+                    final int ticket = (int) (keys [index] >> 32);
+                    // contents sharing a ticket: the first failure wins
+                    if ((0 < size) && (tickets [size - 1] == ticket))
+                    {
+                        continue;
+                    }
+                    tickets [size] = ticket;
+                    codes [size] = (byte) keys [index];
+                    size++;
+                }
+                failures.put (store, new Failures (store, size,
+                    Arrays.copyOf (tickets, size),
+                    Arrays.copyOf (codes, size)));
+            }
+            final int slice = this.previous.isPresent () ?
+                (this.previous.get ().slice + 1) % this.slices : 0;
+            final int runs = this.previous.isPresent () ?
+                this.previous.get ().runs + 1 : 1;
+            return new Manifest (
+                this.watermark, this.slices, slice, runs, failures.build ());
+        }
+
+        private Recorder (
+            Optional <Manifest> previous, int slices, long started)
+        {
+            this.previous = previous;
+            this.slices = slices;
+            // not the latest set time read: contents set during the run
+            // may have been read before being set
+            this.watermark = started;
+            this.bystores = Maps.newTreeMap ();
+            this.sizes = Maps.newHashMap ();
+        }
+        private final int slices;
+        private final long watermark;
+        private final Map <String, long []> bystores;
+        private final Map <String, Integer> sizes;
+    }
+
+    /**
+     * The method that returns the manifest to use with another number of
+     * slices
+     * @param slices is the number of slices
+     * @return the matching manifest
+     */
+    public Manifest withSlices (int slices)
+    {
+        Preconditions.checkArgument (0 < slices, "bad slices: %s", slices);
+        if (slices == this.slices) return this;
+        return new Manifest (this.watermark, slices, this.slice % slices,
+            this.runs, this.failures);
+    }
+
+    private Manifest (
+        long watermark, int slices, int slice, int runs,
+        ImmutableMap <String, Failures> failures)
+    {
+        this.watermark = watermark;
+        this.slices = slices;
+        this.slice = slice;
+        this.runs = runs;
+        this.failures = failures;
+    }
+}
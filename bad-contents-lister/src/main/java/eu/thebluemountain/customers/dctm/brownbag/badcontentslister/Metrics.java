@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The class that collects the metrics of a scan: the number of results by
+ * code and the distribution of the latencies of each stage, by store.
+ *
+ * <p>Metrics are recorded without locking by the threads reading and
+ * checking contents; they can be dumped while the scan runs, both as a
+ * JSON file and as an OpenMetrics text file, so that the scan's health can
+ * be graphed. Files are replaced atomically.</p>
+ */
+final class Metrics
+{
+    /**
+     * The stages whose latency is recorded
+     */
+    enum Stage
+    {
+        /**
+         * Waiting for the next content (or batch of contents) to be read
+         * from the database
+         */
+        FETCH,
+        /**
+         * Checking a content's file
+         */
+        PROBE,
+        /**
+         * Reading a directory
+         */
+        LISTING
+    }
+
+    /**
+     * The percentiles reported
+     */
+    private static final double [] PERCENTILES = {
+        50.0d, 90.0d, 99.0d, 99.9d
+    };
+
+    /**
+     * The names of the percentiles reported, in JSON
+     */
+    private static final String [] NAMES = {
+        "p50", "p90", "p99", "p999"
+    };
+
+    /**
+     * The quantiles matching the percentiles reported, in OpenMetrics
+     */
+    private static final String [] QUANTILES = {
+        "0.5", "0.9", "0.99", "0.999"
+    };
+
+    /**
+     * The results by code
+     */
+    final CodeCounters codes;
+
+    /**
+     * The method that creates the metrics of a scan
+     * @param stores carries the stores
+     * @return the matching metrics
+     */
+    static Metrics create (Stores stores)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        return new Metrics (stores);
+    }
+
+    /**
+     * The method that records a latency
+     * @param stage is the stage
+     * @param store is the index of the store; -1 if not known
+     * @param latency is the latency, in nanoseconds
+     */
+    void record (Stage stage, int store, long latency)
+    {
+        final LatencyHistogram [] histograms =
+            this.latencies [stage.ordinal ()];
+        // the last histogram is the one of unknown stores
+        histograms [(0 > store) ? histograms.length - 1 : store].
+            record (latency);
+    }
+
+    /**
+     * The method that reads a directory, recording the time it takes
+     * @param dir is the directory
+     * @return the directory's listing
+     * @throws IOException when reading the directory
+     */
+    Listing list (Path dir) throws IOException
+    {
+        final long start = System.nanoTime ();
+        try
+        {
+            return Listing.of (dir);
+        }
+        finally
+        {
+            record (Stage.LISTING, storeOf (dir), System.nanoTime () - start);
+        }
+    }
+
+    /**
+     * The method that returns the iterator recording the time spent
+     * waiting for each content
+     * @param it provides the contents
+     * @return the matching iterator
+     */
+    Iterator <DecoratedContent> fetching (
+        final Iterator <DecoratedContent> it)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        return new AbstractIterator <DecoratedContent> ()
+        {
+            @Override
+            protected DecoratedContent computeNext ()
+            {
+                final long start = System.nanoTime ();
+                if (! it.hasNext ()) return endOfData ();
+                final DecoratedContent dc = it.next ();
+                record (Stage.FETCH, dc.content.storeIndex,
+                    System.nanoTime () - start);
+                return dc;
+            }
+        };
+    }
+
+    /**
+     * The method that returns the iterator recording the time spent
+     * waiting for each batch of contents, with the store of its first row
+     * @param it provides the batches
+     * @return the matching iterator
+     */
+    Iterator <ContentBatch> fetchingBatches (final Iterator <ContentBatch> it)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        return new AbstractIterator <ContentBatch> ()
+        {
+            @Override
+            protected ContentBatch computeNext ()
+            {
+                final long start = System.nanoTime ();
+                if (! it.hasNext ()) return endOfData ();
+                final ContentBatch batch = it.next ();
+                record (Stage.FETCH,
+                    (0 == batch.size ()) ? -1 : batch.storeIndex (0),
+                    System.nanoTime () - start);
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * The method that writes the metrics so far into files
+     * @param json is the JSON file
+     * @param openmetrics is the OpenMetrics text file
+     * @throws IOException when writing the files
+     */
+    void dump (Path json, Path openmetrics) throws IOException
+    {
+        final double elapsed =
+            (System.nanoTime () - this.start) / 1000000000.0d;
+        replace (json, json (elapsed));
+        replace (openmetrics, openMetrics (elapsed));
+    }
+
+    /**
+     * The method that starts dumping the metrics periodically
+     * @param prefix is the prefix of the files' names: the JSON file gets
+     *               the {@code .json} extension, the OpenMetrics one the
+     *               {@code .prom} extension
+     * @param period is the time between dumps, in seconds
+     * @return the dumper, that dumps a last time when closed
+     */
+    Dumper dumping (String prefix, long period)
+    {
+        Preconditions.checkNotNull (prefix, "null prefix supplied");
+        Preconditions.checkArgument (0L < period, "bad period: %s", period);
+        final Dumper dumper = new Dumper (
+            Paths.get (prefix + ".json"), Paths.get (prefix + ".prom"));
+        dumper.pool.scheduleWithFixedDelay (
+            dumper, period, period, TimeUnit.SECONDS);
+        return dumper;
+    }
+
+    /**
+     * The class that dumps the metrics periodically
+     */
+    final class Dumper implements Closeable, Runnable
+    {
+        @Override
+        public void run ()
+        {
+            try
+            {
+                dump (this.json, this.openmetrics);
+            }
+            catch (IOException e)
+            {
+                // the next dump may succeed: the scan goes on
+                System.err.println ("failed dumping metrics: " + e);
+            }
+        }
+
+        @Override
+        public void close () throws IOException
+        {
+            this.pool.shutdownNow ();
+            try
+            {
+                this.pool.awaitTermination (1L, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread ().interrupt ();
+            }
+            dump (this.json, this.openmetrics);
+        }
+
+        private Dumper (Path json, Path openmetrics)
+        {
+            this.json = json;
+            this.openmetrics = openmetrics;
+            this.pool = Executors.newSingleThreadScheduledExecutor (
+                new ThreadFactoryBuilder ().setNameFormat ("metrics-%d").
+                    setDaemon (true).build ());
+        }
+        private final Path json;
+        private final Path openmetrics;
+        private final ScheduledExecutorService pool;
+    }
+
+    /**
+     * The method that returns the index of the store a path is in
+     */
+    private int storeOf (Path path)
+    {
+        for (int index = 0; index < this.roots.length; index++)
+        {
+            if (path.startsWith (this.roots [index])) return index;
+        }
+        return -1;
+    }
+
+    /**
+     * The method that returns the name of a store given its index
+     */
+    private String nameOf (int index)
+    {
+        return (this.roots.length == index) ?
+            "unknown" : this.stores.get (index).name;
+    }
+
+    private String json (double elapsed)
+    {
+        final long checked = this.codes.total ();
+        final StringBuilder sb = new StringBuilder (4096);
+        sb.append ("{\n  \"timestamp\": \"").
+            append (DateTime.now (DateTimeZone.UTC)).append ("\",\n").
+            append ("  \"elapsed\": ").append (elapsed).append (",\n").
+            append ("  \"checked\": ").append (checked).append (",\n").
+            append ("  \"rate\": ").append (
+                (0.0d < elapsed) ? checked / elapsed : 0.0d).append (",\n").
+            append ("  \"codes\": {");
+        String separator = "\n";
+        for (Checks.Code code : Checks.Code.values ())
+        {
+            sb.append (separator).append ("    \"").append (code).
+                append ("\": ").append (this.codes.count (code));
+            separator = ",\n";
+        }
+        sb.append ("\n  },\n  \"unit\": \"ns\",\n  \"latencies\": {");
+        separator = "\n";
+        for (Stage stage : Stage.values ())
+        {
+            sb.append (separator).append ("    \"").append (
+                stage.name ().toLowerCase (Locale.ROOT)).append ("\": {");
+            separator = ",\n";
+            String inner = "\n";
+            final LatencyHistogram [] histograms =
+                this.latencies [stage.ordinal ()];
+            for (int index = 0; index < histograms.length; index++)
+            {
+                final LatencyHistogram histogram = histograms [index];
+                final long count = histogram.count ();
+                if (0L == count) continue;
+                sb.append (inner).append ("      ");
+                quote (sb, nameOf (index)).append (": {\"count\": ").
+                    append (count).append (", \"mean\": ").
+                    append (histogram.mean ());
+                for (int rank = 0; rank < PERCENTILES.length; rank++)
+                {
+                    sb.append (", \"").append (NAMES [rank]).append ("\": ").
+                        append (histogram.percentile (PERCENTILES [rank]));
+                }
+                sb.append (", \"max\": ").append (histogram.max ()).
+                    append ('}');
+                inner = ",\n";
+            }
+            sb.append ("\n    }");
+        }
+        return sb.append ("\n  }\n}\n").toString ();
+    }
+
+    private String openMetrics (double elapsed)
+    {
+        final StringBuilder sb = new StringBuilder (4096);
+        sb.append ("# TYPE dctm_elapsed_seconds gauge\n").
+            append ("# UNIT dctm_elapsed_seconds seconds\n").
+            append ("# HELP dctm_elapsed_seconds The time since the scan ").
+            append ("started.\n").
+            append ("dctm_elapsed_seconds ").append (elapsed).append ('\n');
+        sb.append ("# TYPE dctm_checks counter\n").
+            append ("# HELP dctm_checks The number of contents checked, ").
+            append ("by code.\n");
+        for (Checks.Code code : Checks.Code.values ())
+        {
+            sb.append ("dctm_checks_total{code=\"").append (code).
+                append ("\"} ").append (this.codes.count (code)).
+                append ('\n');
+        }
+        sb.append ("# TYPE dctm_latency_seconds summary\n").
+            append ("# UNIT dctm_latency_seconds seconds\n").
+            append ("# HELP dctm_latency_seconds The latency of the stages ").
+            append ("of the scan, by store.\n");
+        for (Stage stage : Stage.values ())
+        {
+            final LatencyHistogram [] histograms =
+                this.latencies [stage.ordinal ()];
+            for (int index = 0; index < histograms.length; index++)
+            {
+                final LatencyHistogram histogram = histograms [index];
+                final long count = histogram.count ();
+                if (0L == count) continue;
+                final StringBuilder labels = new StringBuilder ().
+                    append ("stage=\"").append (
+                        stage.name ().toLowerCase (Locale.ROOT)).
+                    append ("\",store=\"");
+                label (labels, nameOf (index)).append ('"');
+                for (int rank = 0; rank < PERCENTILES.length; rank++)
+                {
+                    sb.append ("dctm_latency_seconds{").append (labels).
+                        append (",quantile=\"").append (QUANTILES [rank]).
+                        append ("\"} ").append (histogram.percentile (
+                            PERCENTILES [rank]) / 1000000000.0d).
+                        append ('\n');
+                }
+                sb.append ("dctm_latency_seconds_sum{").append (labels).
+                    append ("} ").append (histogram.sum () / 1000000000.0d).
+                    append ('\n').
+                    append ("dctm_latency_seconds_count{").append (labels).
+                    append ("} ").append (count).append ('\n');
+            }
+        }
+        return sb.append ("# EOF\n").toString ();
+    }
+
+    /**
+     * The method that appends a JSON string
+     */
+    private static StringBuilder quote (StringBuilder sb, String value)
+    {
+        sb.append ('"');
+        for (int index = 0; index < value.length (); index++)
+        {
+            final char c = value.charAt (index);
+            if (('"' == c) || ('\\' == c))
+            {
+                sb.append ('\\').append (c);
+            }
+            else if (0x20 > c)
+            {
+                sb.append (String.format ("\\u%04x", (int) c));
+            }
+            else
+            {
+                sb.append (c);
+            }
+        }
+        return sb.append ('"');
+    }
+
+    /**
+     * The method that appends the value of an OpenMetrics label
+     */
+    private static StringBuilder label (StringBuilder sb, String value)
+    {
+        for (int index = 0; index < value.length (); index++)
+        {
+            final char c = value.charAt (index);
+            if (('"' == c) || ('\\' == c))
+            {
+                sb.append ('\\').append (c);
+            }
+            else if ('\n' == c)
+            {
+                sb.append ("\\n");
+            }
+            else
+            {
+                sb.append (c);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * The method that replaces a file atomically
+     */
+    private static void replace (Path file, String text) throws IOException
+    {
+        final Path tmp = file.resolveSibling (file.getFileName () + ".tmp");
+        Files.write (tmp, text.getBytes (StandardCharsets.UTF_8));
+        try
+        {
+            Files.move (tmp, file, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move (tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Metrics (Stores stores)
+    {
+        this.stores = stores;
+        this.codes = CodeCounters.create ();
+        final int size = stores.all.size ();
+        this.roots = new Path [size];
+        for (int index = 0; index < size; index++)
+        {
+            this.roots [index] = Paths.get (stores.get (index).path);
+        }
+        this.latencies = new LatencyHistogram [Stage.values ().length][];
+        for (int stage = 0; stage < this.latencies.length; stage++)
+        {
+            // one more for the unknown stores
+            this.latencies [stage] = new LatencyHistogram [size + 1];
+            for (int index = 0; index <= size; index++)
+            {
+                this.latencies [stage][index] = LatencyHistogram.create ();
+            }
+        }
+        this.start = System.nanoTime ();
+    }
+    private final Stores stores;
+    private final Path [] roots; // the stores' directories, by index
+    private final LatencyHistogram [][] latencies; // by stage and store
+    private final long start;
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * The class that carries the options of a scan, as supplied with the
+ * commands.
+ *
+ * <p>Options are parsed and checked against each other once, before any
+ * connection is opened: an option that depends on another one, or that
+ * conflicts with another one, is rejected with an
+ * {@link IllegalArgumentException}</p>
+ */
+final class Options
+{
+    /**
+     * The method that returns the options supplied with the commands
+     * @param cmds carries the commands
+     * @return the matching options
+     * @throws IllegalArgumentException if a value is not valid or options
+     * do not fit together
+     */
+    static Options of (Map <Command, Optional <String>> cmds)
+        throws IllegalArgumentException
+    {
+        Preconditions.checkNotNull (cmds, "null cmds supplied");
+        final Options options = new Options (cmds);
+        options.validate (cmds.isEmpty () ?
+            EnumSet.noneOf (Command.class) : EnumSet.copyOf (cmds.keySet ()));
+        return options;
+    }
+
+    /**
+     * The number of checker threads if any
+     */
+    final Optional <Integer> threads;
+
+    /**
+     * The max number of checks in flight if any
+     */
+    final Optional <Integer> inflight;
+
+    /**
+     * Whether to adapt the number of checks in flight to the file system's
+     * latency
+     */
+    final boolean adaptive;
+
+    /**
+     * Whether to read each directory once rather than probing each file
+     */
+    final boolean listing;
+
+    /**
+     * The number of contents to look ahead if any
+     */
+    final Optional <Integer> prefetch;
+
+    /**
+     * The max number of directory listings kept when prefetching if any
+     */
+    final Optional <Integer> prefetchdirs;
+
+    /**
+     * The inventory file if any
+     */
+    final Optional <Path> inventory;
+
+    /**
+     * Whether to only walk the stores, saving the inventory
+     */
+    final boolean walk;
+
+    /**
+     * Whether to list the files no content refers to
+     */
+    final boolean orphans;
+
+    /**
+     * Whether to check contents with no parent as well
+     */
+    final boolean parentless;
+
+    /**
+     * The number of contents in each batch if read and checked by batches
+     */
+    final Optional <Integer> batch;
+
+    /**
+     * Whether to read contents without their parent's meta data: batches
+     * carry none
+     */
+    final boolean lean;
+
+    /**
+     * The results file to write if any
+     */
+    final Optional <Path> results;
+
+    /**
+     * The prefix of the metrics files if any
+     */
+    final Optional <String> metrics;
+
+    /**
+     * The checkpoint file if any
+     */
+    final Optional <Path> checkpoint;
+
+    /**
+     * Whether to resume from the checkpoint
+     */
+    final boolean resume;
+
+    /**
+     * The manifest file of delta runs if any
+     */
+    final Optional <Path> delta;
+
+    /**
+     * The number of slices of delta runs if any
+     */
+    final Optional <Integer> slices;
+
+    /**
+     * The number of connections reading contents if any
+     */
+    final Optional <Integer> connections;
+
+    /**
+     * The number of threads computing files' digest if any
+     */
+    final Optional <Integer> hash;
+
+    /**
+     * The max number of bytes per second read for digests if any
+     */
+    final Optional <Integer> hashrate;
+
+    /**
+     * @return the number of threads checking contents at once
+     */
+    int workers ()
+    {
+        return this.inflight.or (this.threads.or (1));
+    }
+
+    /**
+     * @return the number of threads walking the stores
+     */
+    int walkers ()
+    {
+        return this.threads.or (Runtime.getRuntime ().availableProcessors ());
+    }
+
+    /**
+     * The method that checks that the options fit together
+     * @param supplied carries the commands supplied
+     * @throws IllegalArgumentException if they do not
+     */
+    private void validate (Set <Command> supplied)
+        throws IllegalArgumentException
+    {
+        requires (supplied, Command.ADAPTIVE, Command.INFLIGHT);
+        requires (supplied, Command.PREFETCHDIRS, Command.PREFETCH);
+        requires (supplied, Command.WALK, Command.INVENTORY);
+        requires (supplied, Command.HASHRATE, Command.HASH);
+        requires (supplied, Command.RESUME, Command.CHECKPOINT);
+        requires (supplied, Command.SLICES, Command.DELTA);
+        // checkpoints record the progress of a scan of all contents
+        excludes (supplied, Command.DELTA, Command.CHECKPOINT);
+        // partitions are read concurrently: there is no single progress
+        excludes (supplied, Command.CONNECTIONS, Command.DELTA);
+        excludes (supplied, Command.CONNECTIONS, Command.CHECKPOINT);
+        // batches are checked sequentially, from a single query
+        for (Command other : EnumSet.of (Command.THREADS,
+            Command.INFLIGHT, Command.PREFETCH, Command.CONNECTIONS,
+            Command.CHECKPOINT, Command.DELTA))
+        {
+            excludes (supplied, Command.BATCH, other);
+        }
+        // errors are written later on: the log's length is not the
+        // progress a checkpoint would record
+        excludes (supplied, Command.LEAN, Command.CHECKPOINT);
+        // the results of the contents checked before the checkpoint are not
+        // known
+        excludes (supplied, Command.RESULTS, Command.RESUME);
+        // delta runs read the previous failures after the other contents:
+        // results would not be in key order, as compared runs require
+        excludes (supplied, Command.RESULTS, Command.DELTA);
+    }
+
+    /**
+     * The method that checks that a command comes with another one
+     * @param supplied carries the commands supplied
+     * @param cmd is the command
+     * @param required is the command it requires
+     * @throws IllegalArgumentException if the command is supplied alone
+     */
+    private static void requires (
+        Set <Command> supplied, Command cmd, Command required)
+        throws IllegalArgumentException
+    {
+        Preconditions.checkArgument (
+            (! supplied.contains (cmd)) || (supplied.contains (required)),
+            "command %s requires command %s", cmd, required);
+    }
+
+    /**
+     * The method that checks that 2 commands are not supplied together
+     * @param supplied carries the commands supplied
+     * @param cmd is the command
+     * @param other is the command it cannot be used with
+     * @throws IllegalArgumentException if both commands are supplied
+     */
+    private static void excludes (
+        Set <Command> supplied, Command cmd, Command other)
+        throws IllegalArgumentException
+    {
+        Preconditions.checkArgument (
+            (! supplied.contains (cmd)) || (! supplied.contains (other)),
+            "command %s cannot be used with command %s", cmd, other);
+    }
+
+    /**
+     * The method that returns the (strictly positive) number supplied
+     * with a command
+     * @param cmds carries the commands
+     * @param cmd identifies the command
+     * @return the number if any
+     * @throws IllegalArgumentException if the value is not such a number
+     */
+    private static Optional <Integer> count (
+        Map <Command, Optional <String>> cmds, Command cmd)
+        throws IllegalArgumentException
+    {
+        if (! cmds.containsKey (cmd))
+        {
+            return Optional.absent ();
+        }
+        final String value = cmds.get (cmd).get ();
+        try
+        {
+            int count = Integer.parseInt (value);
+            Preconditions.checkArgument (
+                0 < count, "bad value for command %s: %s", cmd, count);
+            return Optional.of (count);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException (
+                "bad value for command " + cmd + ": '" + value + '\'', e);
+        }
+    }
+
+    /**
+     * The method that returns the file supplied with a command
+     * @param cmds carries the commands
+     * @param cmd identifies the command
+     * @return the file if any
+     */
+    private static Optional <Path> file (
+        Map <Command, Optional <String>> cmds, Command cmd)
+    {
+        return cmds.containsKey (cmd) ?
+            Optional.of (Paths.get (cmds.get (cmd).get ())) :
+            Optional.<Path>absent ();
+    }
+
+    private Options (Map <Command, Optional <String>> cmds)
+    {
+        this.threads = count (cmds, Command.THREADS);
+        this.inflight = count (cmds, Command.INFLIGHT);
+        this.adaptive = cmds.containsKey (Command.ADAPTIVE);
+        this.listing = cmds.containsKey (Command.LISTING);
+        this.prefetch = count (cmds, Command.PREFETCH);
+        this.prefetchdirs = count (cmds, Command.PREFETCHDIRS);
+        this.inventory = file (cmds, Command.INVENTORY);
+        this.walk = cmds.containsKey (Command.WALK);
+        this.orphans = cmds.containsKey (Command.ORPHANS);
+        this.parentless = cmds.containsKey (Command.PARENTLESS);
+        this.batch = count (cmds, Command.BATCH);
+        this.lean = cmds.containsKey (Command.LEAN) || this.batch.isPresent ();
+        this.results = file (cmds, Command.RESULTS);
+        this.metrics = cmds.containsKey (Command.METRICS) ?
+            cmds.get (Command.METRICS) : Optional.<String>absent ();
+        this.checkpoint = file (cmds, Command.CHECKPOINT);
+        this.resume = cmds.containsKey (Command.RESUME);
+        this.delta = file (cmds, Command.DELTA);
+        this.slices = count (cmds, Command.SLICES);
+        this.connections = count (cmds, Command.CONNECTIONS);
+        this.hash = count (cmds, Command.HASH);
+        this.hashrate = count (cmds, Command.HASHRATE);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The class that finds the files no content refers to.
+ *
+ * <p>It walks the stores' directories, decoding each file's path into a
+ * ticket and looking for that ticket in the tickets of the store's
+ * contents. Files whose path does not match a ticket are orphans as
+ * well.</p>
+ */
+final class OrphansFinder
+{
+    /**
+     * The class that carries a file no content refers to
+     */
+    static final class Orphan
+    {
+        /**
+         * The file
+         */
+        final Path path;
+
+        /**
+         * The (unsigned) ticket matching the file; -1 if not matching
+         */
+        final long ticket;
+
+        /**
+         * The file's size
+         */
+        final long size;
+
+        /**
+         * The file's last modified time
+         */
+        final long modified;
+
+        private Orphan (Path path, long ticket, long size, long modified)
+        {
+            this.path = path;
+            this.ticket = ticket;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * The task that walks a first-level directory
+     */
+    private static final class Walk implements Callable <List <Orphan>>
+    {
+        @Override
+        public List <Orphan> call () throws IOException
+        {
+            final List <Orphan> orphans = Lists.newArrayList ();
+            Files.walkFileTree (this.dir, EnumSet.noneOf (
+                FileVisitOption.class), 3, new SimpleFileVisitor <Path> ()
+                {
+                    @Override
+                    public FileVisitResult visitFile (
+                        Path file, BasicFileAttributes attrs)
+                    {
+                        if (attrs.isDirectory ())
+                        {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long ticket = Content.ticketOf (
+                            Walk.this.root.relativize (file));
+                        if ((-1L == ticket) ||
+                            (! Walk.this.tickets.contains ((int) ticket)))
+                        {
+                            orphans.add (new Orphan (file, ticket,
+                                attrs.size (),
+                                attrs.lastModifiedTime ().toMillis ()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            return orphans;
+        }
+
+        private Walk (Path root, Path dir, TicketSet tickets)
+        {
+            this.root = root;
+            this.dir = dir;
+            this.tickets = tickets;
+        }
+        private final Path root;
+        private final Path dir;
+        private final TicketSet tickets;
+    }
+
+    /**
+     * The method that finds the orphans in all stores.
+     * @param stores carries the stores to walk
+     * @param tickets carries the contents' tickets by store identifier
+     * @param threads is the number of threads walking directories
+     * @param writer writes the orphans
+     * @return the number of orphans
+     * @throws IOException when reading a directory
+     * @throws InterruptedException when interrupted while waiting for
+     * the walks to complete
+     */
+    static long find (
+        Stores stores, ImmutableMap <String, TicketSet> tickets,
+        int threads, CSVWriter writer)
+        throws IOException, InterruptedException
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkNotNull (tickets, "null tickets supplied");
+        Preconditions.checkArgument (0 < threads, "bad threads: %s", threads);
+        Preconditions.checkNotNull (writer, "null writer supplied");
+        final ExecutorService pool = Executors.newFixedThreadPool (
+            threads, new ThreadFactoryBuilder ().
+                setNameFormat ("walker-%d").setDaemon (true).build ());
+        try
+        {
+            long count = 0L;
+            for (Store store : stores.all)
+            {
+                TicketSet current = tickets.get (store.id);
+                if (null == current)
+                {
+                    current = TicketSet.create ();
+                }
+                count += find (store, current, pool, writer);
+            }
+            return count;
+        }
+        finally
+        {
+            pool.shutdownNow ();
+        }
+    }
+
+    private static long find (
+        Store store, TicketSet tickets, ExecutorService pool,
+        CSVWriter writer) throws IOException, InterruptedException
+    {
+        Stopwatch watch = Stopwatch.createStarted ();
+        final Path root = Paths.get (store.path);
+        final List <Path> tops;
+        try
+        {
+            tops = InventoryWalker.tops (root);
+        }
+        catch (NoSuchFileException e)
+        {
+            System.err.println ("there is no directory " + root);
+            return 0L;
+        }
+        List <Future <List <Orphan>>> walks = Lists.newArrayList ();
+        for (Path top : tops)
+        {
+            walks.add (pool.submit (new Walk (root, top, tickets)));
+        }
+        long count = 0L;
+        long size = 0L;
+        try
+        {
+            // writes the orphans as soon as walks complete, in order
+            for (Future <List <Orphan>> walk : walks)
+            {
+                for (Orphan orphan : walk.get ())
+                {
+                    writer.writeOrphan (store, orphan);
+                    count++;
+                    size += orphan.size;
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            for (Future <List <Orphan>> walk : walks)
+            {
+                walk.cancel (true);
+            }
+            Throwables.propagateIfInstanceOf (e.getCause (), IOException.class);
+            throw Throwables.propagate (e.getCause ());
+        }
+        System.out.println (
+            "spent " + watch.stop () + " to find " + count +
+                " orphans (" + size + " bytes) in store " + store.name +
+                " referencing " + tickets.size () + " tickets");
+        return count;
+    }
+
+    private OrphansFinder () { super (); }
+}
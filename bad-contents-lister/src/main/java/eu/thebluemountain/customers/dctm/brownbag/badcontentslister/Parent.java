@@ -24,6 +24,12 @@ import com.google.common.base.Strings;
  */
 public final class Parent
 {
+    /**
+     * The parent of contents with no parent
+     */
+    public static final Parent NONE =
+        new Parent ("0000000000000000", "", "", false);
+
     /**
      * The method that does create a new parent
      * @param id carries the system object's identifier
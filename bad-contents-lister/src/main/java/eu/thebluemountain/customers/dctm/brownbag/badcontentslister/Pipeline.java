@@ -0,0 +1,575 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
+
+/**
+ * The class that runs the checks of contents, either sequentially or
+ * through a pipeline.
+ *
+ * <p>Contents are read in store and ticket's order: contents sharing the
+ * same file (such as a content with several parents) are then read
+ * consecutively. The file is checked once for the first one and the result
+ * is reused for the next ones.</p>
+ *
+ * <p>The pipeline consists in 3 stages:
+ * <ul>
+ *  <li>a producer thread that drains the contents iterator and submits
+ *  each content to the checkers</li>
+ *  <li>a pool of checker threads that perform the actual checks</li>
+ *  <li>the calling thread that hands over results to the sink, in the
+ *  order the contents were read</li>
+ * </ul>
+ * The producer and the sink exchange pending checks through a bounded
+ * queue: when the sink (or the checkers) lag behind, the producer blocks
+ * rather than fetching more rows.
+ * </p>
+ *
+ * <p>Checks mostly wait for the file system: on network mounts, hiding
+ * that latency requires many more checks in flight than there are
+ * processors. The checkers can then be threads created on demand, with a
+ * small stack, the number of checks in flight being limited by a
+ * {@link Limit} rather than by the number of threads.</p>
+ */
+final class Pipeline
+{
+    /**
+     * The interface for classes that receive checked contents
+     */
+    interface Sink
+    {
+        /**
+         * The method that receives a checked content
+         * @param dc is the content
+         * @param result is the result of the check
+         * @param latency is the time the check took, in nanoseconds; 0
+         *                when the result of the previous content is reused
+         */
+        void accept (DecoratedContent dc, Checks.Result result, long latency);
+    }
+
+    /**
+     * The interface for classes that receive the checked rows of batches
+     */
+    interface BatchSink
+    {
+        /**
+         * The method that receives a checked row
+         * @param batch carries the contents; its rows are replaced once
+         *              the method returns for the batch's last row
+         * @param row is the row's index
+         * @param result is the result of the check
+         * @param latency is the time the check took, in nanoseconds; 0
+         *                when the result of the previous row is reused
+         */
+        void accept (
+            ContentBatch batch, int row, Checks.Result result, long latency);
+    }
+
+    /**
+     * The interface for classes that limit the number of checks in flight
+     */
+    interface Limit
+    {
+        /**
+         * The method that waits until one more check can be in flight
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void acquire () throws InterruptedException;
+
+        /**
+         * The method that signals a check is over
+         * @param latency is the time the check took, in nanoseconds
+         */
+        void release (long latency);
+    }
+
+    /**
+     * The method that returns a limit with a fixed number of checks in
+     * flight
+     * @param permits is the max number of checks in flight
+     * @return the matching limit
+     */
+    static Limit fixed (int permits)
+    {
+        Preconditions.checkArgument (0 < permits, "bad permits: %s", permits);
+        final Semaphore semaphore = new Semaphore (permits);
+        return new Limit ()
+        {
+            @Override
+            public void acquire () throws InterruptedException
+            {
+                semaphore.acquire ();
+            }
+
+            @Override
+            public void release (long latency)
+            {
+                semaphore.release ();
+            }
+        };
+    }
+
+    /**
+     * The method that runs the checks sequentially, on the calling thread.
+     * @param it provides the contents to check
+     * @param checker performs the check
+     * @param sink receives the results
+     * @return the number of checked contents
+     */
+    static long sequential (
+        Iterator <DecoratedContent> it,
+        Function <DecoratedContent, Checks.Result> checker, Sink sink)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        Preconditions.checkNotNull (checker, "null checker supplied");
+        Preconditions.checkNotNull (sink, "null sink supplied");
+        long count = 0L;
+        Content previous = null;
+        Checks.Result last = null;
+        while (it.hasNext ())
+        {
+            DecoratedContent dc = it.next ();
+            count++;
+            final long start = System.nanoTime ();
+            final boolean same = sameCheck (previous, dc.content);
+            final Checks.Result result = same ? last : checker.apply (dc);
+            assert null != result;
+            sink.accept (dc, result, same ? 0L : System.nanoTime () - start);
+            previous = dc.content;
+            last = result;
+        }
+        return count;
+    }
+
+    /**
+     * The method that runs the checks of batches of contents sequentially,
+     * on the calling thread.
+     *
+     * <p>The checks are performed from the batches' columns: no content is
+     * created unless the sink requires it</p>
+     * @param it provides the batches of contents to check
+     * @param checker performs the check
+     * @param sink receives the results
+     * @return the number of checked contents
+     */
+    static long batched (
+        Iterator <ContentBatch> it, Checks.ContentsChecker checker,
+        BatchSink sink)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        Preconditions.checkNotNull (checker, "null checker supplied");
+        Preconditions.checkNotNull (sink, "null sink supplied");
+        long count = 0L;
+        // the previous row, that may be in the previous batch
+        int store = -1;
+        int ticket = 0;
+        int size = 0;
+        Optional <String> extension = Optional.absent ();
+        Optional <String> hash = Optional.absent ();
+        Checks.Result last = null;
+        while (it.hasNext ())
+        {
+            final ContentBatch batch = it.next ();
+            for (int row = 0; row < batch.size (); row++)
+            {
+                count++;
+                final boolean same = ((store == batch.storeIndex (row)) &&
+                    (ticket == batch.ticket (row)) &&
+                    (size == batch.size (row)) &&
+                    (extension.equals (batch.extension (row))) &&
+                    (hash.equals (batch.hash (row))));
+                final long start = System.nanoTime ();
+                final Checks.Result result = same ?
+                    last : checker.apply (batch, row);
+                assert null != result;
+                sink.accept (batch, row, result,
+                    same ? 0L : System.nanoTime () - start);
+                store = batch.storeIndex (row);
+                ticket = batch.ticket (row);
+                size = batch.size (row);
+                extension = batch.extension (row);
+                hash = batch.hash (row);
+                last = result;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The method that indicates whether checking a content produces the
+     * same result as checking the previous one: same file and same
+     * expected size.
+     * @param previous is the previous content if any
+     * @param content is the content
+     * @return whether the previous content's result can be reused
+     */
+    private static boolean sameCheck (Content previous, Content content)
+    {
+        return ((null != previous) &&
+            (previous.ticket == content.ticket) &&
+            (previous.size == content.size) &&
+            (previous.store.equals (content.store)) &&
+            (previous.extension.equals (content.extension)) &&
+            (previous.hash.equals (content.hash)));
+    }
+
+    /**
+     * The result of a check and the time the check took
+     */
+    private static final class Checked
+    {
+        final Checks.Result result;
+        final long latency;
+        private Checked (Checks.Result result, long latency)
+        {
+            this.result = result;
+            this.latency = latency;
+        }
+    }
+
+    /**
+     * The pending check: the content and the future result
+     */
+    private static final class Pending
+    {
+        final DecoratedContent dc;
+        final Future <Checked> result;
+        final boolean reused; // whether the result is the previous one
+        private Pending (
+            DecoratedContent dc, Future <Checked> result, boolean reused)
+        {
+            this.dc = dc;
+            this.result = result;
+            this.reused = reused;
+        }
+    }
+
+    /**
+     * The marker that signals the end of the contents
+     */
+    private static final Pending END = new Pending (null, null, false);
+
+    /**
+     * The runnable that drains the iterator into the queue of pending
+     * checks
+     */
+    private static final class Producer implements Runnable
+    {
+        @Override
+        public void run ()
+        {
+            try
+            {
+                Content previous = null;
+                Future <Checked> last = null;
+                while ((! Thread.currentThread ().isInterrupted ()) &&
+                    (this.it.hasNext ()))
+                {
+                    final DecoratedContent dc = this.it.next ();
+                    final boolean same = sameCheck (previous, dc.content);
+                    final Future <Checked> result =
+                        same ? last : this.submit (dc);
+                    this.queue.put (new Pending (dc, result, same));
+                    previous = dc.content;
+                    last = result;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // cancelled: the sink is not waiting for any more result
+                return;
+            }
+            catch (Throwable t)
+            {
+                this.failure.set (t);
+            }
+            try
+            {
+                this.queue.put (END);
+            }
+            catch (InterruptedException e)
+            {
+                // cancelled as well: nobody to notify then
+                Thread.currentThread ().interrupt ();
+            }
+        }
+
+        /**
+         * The method that submits the check of a content, waiting for a
+         * permit first if the checks in flight are limited
+         * @param dc is the content
+         * @return the future result
+         * @throws InterruptedException if interrupted waiting for a permit
+         */
+        private Future <Checked> submit (final DecoratedContent dc)
+            throws InterruptedException
+        {
+            if (! this.limit.isPresent ())
+            {
+                return this.pool.submit (new Callable <Checked> ()
+                {
+                    @Override
+                    public Checked call ()
+                    {
+                        final long start = System.nanoTime ();
+                        final Checks.Result result =
+                            Producer.this.checker.apply (dc);
+                        return new Checked (
+                            result, System.nanoTime () - start);
+                    }
+                });
+            }
+            final Limit limit = this.limit.get ();
+            limit.acquire ();
+            try
+            {
+                return this.pool.submit (new Callable <Checked> ()
+                {
+                    @Override
+                    public Checked call ()
+                    {
+                        final long start = System.nanoTime ();
+                        try
+                        {
+                            final Checks.Result result =
+                                Producer.this.checker.apply (dc);
+                            return new Checked (
+                                result, System.nanoTime () - start);
+                        }
+                        finally
+                        {
+                            limit.release (System.nanoTime () - start);
+                        }
+                    }
+                });
+            }
+            catch (RuntimeException e)
+            {
+                // not submitted (rejected)
+                limit.release (0L);
+                throw e;
+            }
+        }
+
+        private Producer (
+            Iterator <DecoratedContent> it,
+            Function <DecoratedContent, Checks.Result> checker,
+            ExecutorService pool, Optional <Limit> limit,
+            BlockingQueue <Pending> queue, AtomicReference <Throwable> failure)
+        {
+            this.it = it;
+            this.checker = checker;
+            this.pool = pool;
+            this.limit = limit;
+            this.queue = queue;
+            this.failure = failure;
+        }
+        private final Iterator <DecoratedContent> it;
+        private final Function <DecoratedContent, Checks.Result> checker;
+        private final ExecutorService pool;
+        private final Optional <Limit> limit;
+        private final BlockingQueue <Pending> queue;
+        private final AtomicReference <Throwable> failure;
+    }
+
+    /**
+     * The method that runs the checks through the pipeline.
+     *
+     * <p>Results are handed over to the sink on the calling thread and in
+     * the order of the iterator. When the method returns normally, the
+     * producer thread is over and the checker threads are stopped: the
+     * iterator can then be safely closed by the caller. When it fails or
+     * is cancelled, the producer may still be blocked reading the iterator
+     * (reading rows cannot be interrupted): closing the iterator then
+     * releases it.</p>
+     *
+     * @param it provides the contents to check
+     * @param checker performs the check; it is invoked concurrently
+     * @param sink receives the results
+     * @param workers is the number of checker threads
+     * @param capacity is the max number of pending checks
+     * @return the number of checked contents
+     * @throws InterruptedException if the calling thread is interrupted
+     * while waiting for results
+     */
+    static long parallel (
+        Iterator <DecoratedContent> it,
+        Function <DecoratedContent, Checks.Result> checker, Sink sink,
+        int workers, int capacity) throws InterruptedException
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        Preconditions.checkNotNull (checker, "null checker supplied");
+        Preconditions.checkNotNull (sink, "null sink supplied");
+        Preconditions.checkArgument (0 < workers, "bad workers: %s", workers);
+        Preconditions.checkArgument (
+            0 < capacity, "bad capacity: %s", capacity);
+        final ExecutorService pool = Executors.newFixedThreadPool (
+            workers, new ThreadFactoryBuilder ().
+                setNameFormat ("checker-%d").setDaemon (true).build ());
+        return run (it, checker, sink, pool,
+            Optional.<Limit>absent (), capacity);
+    }
+
+    /**
+     * The stack size of the threads checking contents on demand
+     */
+    private static final long STACKSIZE = 256L * 1024L;
+
+    /**
+     * The method that runs the checks through the pipeline, with one task
+     * per content and a limit on the number of checks in flight.
+     *
+     * <p>Checker threads are created on demand, with a small stack, and
+     * reused when idle: there are no more threads than checks in flight.
+     * Results are handed over to the sink on the calling thread and in
+     * the order of the iterator.</p>
+     *
+     * @param it provides the contents to check
+     * @param checker performs the check; it is invoked concurrently
+     * @param sink receives the results
+     * @param limit limits the number of checks in flight
+     * @param capacity is the max number of pending checks
+     * @return the number of checked contents
+     * @throws InterruptedException if the calling thread is interrupted
+     * while waiting for results
+     */
+    static long concurrent (
+        Iterator <DecoratedContent> it,
+        Function <DecoratedContent, Checks.Result> checker, Sink sink,
+        Limit limit, int capacity) throws InterruptedException
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        Preconditions.checkNotNull (checker, "null checker supplied");
+        Preconditions.checkNotNull (sink, "null sink supplied");
+        Preconditions.checkNotNull (limit, "null limit supplied");
+        Preconditions.checkArgument (
+            0 < capacity, "bad capacity: %s", capacity);
+        final ExecutorService pool = Executors.newCachedThreadPool (
+            new ThreadFactoryBuilder ().setNameFormat ("prober-%d").
+                setDaemon (true).setThreadFactory (new ThreadFactory ()
+                {
+                    @Override
+                    public Thread newThread (Runnable r)
+                    {
+                        return new Thread (null, r, "prober", STACKSIZE);
+                    }
+                }).build ());
+        return run (it, checker, sink, pool, Optional.of (limit), capacity);
+    }
+
+    /**
+     * The time to wait for the producer to stop when cancelled, in
+     * milliseconds
+     */
+    private static final long CANCEL = 10000L;
+
+    private static long run (
+        Iterator <DecoratedContent> it,
+        Function <DecoratedContent, Checks.Result> checker, Sink sink,
+        ExecutorService pool, Optional <Limit> limit, int capacity)
+        throws InterruptedException
+    {
+        final BlockingQueue <Pending> queue =
+            new ArrayBlockingQueue <> (capacity);
+        final AtomicReference <Throwable> failure = new AtomicReference <> ();
+        final Thread producer = new Thread (
+            new Producer (it, checker, pool, limit, queue, failure),
+            "producer");
+        producer.setDaemon (true);
+        producer.start ();
+        long count = 0L;
+        boolean done = false;
+        try
+        {
+            while (true)
+            {
+                Pending pending = queue.take ();
+                if (END == pending) break;
+                final Checked checked = resultOf (pending);
+                assert null != checked.result;
+                count++;
+                sink.accept (pending.dc, checked.result,
+                    pending.reused ? 0L : checked.latency);
+            }
+            done = true;
+        }
+        finally
+        {
+            if (! done)
+            {
+                // cancels: stop fetching and checking
+                producer.interrupt ();
+                pool.shutdownNow ();
+                queue.clear ();
+            }
+            pool.shutdown ();
+            if (done)
+            {
+                producer.join ();
+            }
+            else
+            {
+                // the producer may be blocked reading a row: the caller
+                // closing the iterator then stops it
+                producer.join (CANCEL);
+            }
+            pool.awaitTermination (1L, TimeUnit.MINUTES);
+        }
+        Throwable t = failure.get ();
+        if (null != t)
+        {
+            throw Throwables.propagate (t);
+        }
+        return count;
+    }
+
+    private static Checked resultOf (Pending pending)
+        throws InterruptedException
+    {
+        try
+        {
+            return pending.result.get ();
+        }
+        catch (ExecutionException e)
+        {
+            throw Throwables.propagate (e.getCause ());
+        }
+    }
+
+    private Pipeline () { super (); }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The class that reads directories before their contents get checked.
+ *
+ * <p>As contents are read in ticket's order, the directories to read next
+ * are known ahead of time: the prefetcher looks a number of contents ahead
+ * in the stream and reads their directories on threads of its own. When a
+ * content is then checked, its directory's listing is already in memory, or
+ * being read.<br>
+ * The prefetcher is also the locator of files: it keeps a bounded number of
+ * listings, the older ones being evicted first.</p>
+ */
+final class Prefetcher implements Checks.Locator, Closeable
+{
+    /**
+     * The method that creates a new prefetcher
+     * @param stores carries the stores of use when accessing the files
+     * @param rows is the number of contents to look ahead
+     * @param directories is the max number of directory listings to keep
+     * @param threads is the number of threads reading directories
+     * @param metrics records the time reading directories takes if any
+     * @return the matching prefetcher
+     */
+    static Prefetcher create (
+        Stores stores, int rows, int directories, int threads,
+        Optional <Metrics> metrics)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkNotNull (metrics, "null metrics supplied");
+        Preconditions.checkArgument (0 < rows, "bad rows: %s", rows);
+        Preconditions.checkArgument (
+            0 < directories, "bad number of directories: %s", directories);
+        Preconditions.checkArgument (0 < threads, "bad threads: %s", threads);
+        final ExecutorService pool = Executors.newFixedThreadPool (
+            threads, new ThreadFactoryBuilder ().
+                setNameFormat ("prefetcher-%d").setDaemon (true).build ());
+        return new Prefetcher (
+            Checks.paths (stores), rows, directories, pool, metrics);
+    }
+
+    /**
+     * The method that returns the contents, reading their directories
+     * ahead.
+     *
+     * <p>The returned iterator is not thread-safe: it is expected to be
+     * drained by a single thread, as the contents reader is</p>
+     * @param it provides the contents
+     * @return the contents, in the same order
+     */
+    Iterator <DecoratedContent> ahead (final Iterator <DecoratedContent> it)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        return new AbstractIterator <DecoratedContent> ()
+        {
+            @Override
+            protected DecoratedContent computeNext ()
+            {
+                while ((this.window.size () < Prefetcher.this.rows) &&
+                    (it.hasNext ()))
+                {
+                    DecoratedContent dc = it.next ();
+                    Path dir = Prefetcher.this.path.apply (
+                        dc.content).getParent ();
+                    if (! dir.equals (this.last))
+                    {
+                        Prefetcher.this.listing (dir);
+                        this.last = dir;
+                    }
+                    this.window.addLast (dc);
+                }
+                return this.window.isEmpty () ? endOfData () :
+                    this.window.removeFirst ();
+            }
+            private final Deque <DecoratedContent> window =
+                new ArrayDeque <> ();
+            private Path last;
+        };
+    }
+
+    @Override
+    public Checks.Location locate (Path path)
+    {
+        try
+        {
+            return this.listing (path.getParent ()).get ().locate (path);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+            return Checks.Location.failed (path,
+                new IOException ("interrupted reading " + path, e));
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause ();
+            if (cause instanceof IOException)
+            {
+                return Checks.Location.failed (path, (IOException) cause);
+            }
+            throw Throwables.propagate (cause);
+        }
+    }
+
+    @Override
+    public void close ()
+    {
+        this.pool.shutdownNow ();
+    }
+
+    /**
+     * The method that returns the listing of a directory, submitting its
+     * reading if not already
+     * @param dir is the directory
+     * @return the future listing
+     */
+    private Future <Listing> listing (final Path dir)
+    {
+        try
+        {
+            return this.listings.get (dir, new Callable <Future <Listing>> ()
+            {
+                @Override
+                public Future <Listing> call ()
+                {
+                    return Prefetcher.this.pool.submit (
+                        new Callable <Listing> ()
+                        {
+                            @Override
+                            public Listing call () throws IOException
+                            {
+                                final Optional <Metrics> metrics =
+                                    Prefetcher.this.metrics;
+                                return metrics.isPresent () ?
+                                    metrics.get ().list (dir) :
+                                    Listing.of (dir);
+                            }
+                        });
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            throw Throwables.propagate (e.getCause ());
+        }
+    }
+
+    private Prefetcher (
+        Function <Content, Path> path, int rows, int directories,
+        ExecutorService pool, Optional <Metrics> metrics)
+    {
+        this.path = path;
+        this.rows = rows;
+        this.pool = pool;
+        this.metrics = metrics;
+        this.listings = CacheBuilder.newBuilder ().
+            maximumSize (directories).build ();
+    }
+    private final Function <Content, Path> path;
+    private final int rows;
+    private final ExecutorService pool;
+    private final Optional <Metrics> metrics;
+    private final Cache <Path, Future <Listing>> listings;
+}
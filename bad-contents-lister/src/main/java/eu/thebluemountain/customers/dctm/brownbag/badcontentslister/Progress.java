@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.ContentBatch;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.DCReader;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db.JDBCConnection;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The class that reports the progress of a scan.
+ *
+ * <p>The rows read and the files checked are counted by store with
+ * striped counters: any thread can count them, without locking. The
+ * progress is reported on a timer, by a thread of its own: the rates of
+ * rows read and files checked, and when the number of contents of each
+ * store is known, the percentage done and the time left, for each store
+ * being checked and overall.<br>
+ * The number of contents are counted by the database while the scan goes
+ * on: they are estimates, rows being counted with no join</p>
+ */
+final class Progress
+{
+    /**
+     * The time a rate takes to mostly reflect a change, in seconds
+     */
+    private static final double WINDOW = 60.0;
+
+    /**
+     * The method that creates the progress of a scan and starts reporting
+     * it
+     * @param stores carries the stores
+     * @param codes counts the results, of use to report the errors
+     * @param limit is the adaptive limit of checks in flight if any
+     * @param resumed is the checkpoint the scan resumes from if any: the
+     *                stores before the checkpoint's one are then done
+     * @param period is the time between reports, in seconds
+     * @return the matching progress
+     */
+    static Progress start (Stores stores, CodeCounters codes,
+        Optional <AdaptiveLimit> limit, Optional <Checkpoint> resumed,
+        long period)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkNotNull (codes, "null codes supplied");
+        Preconditions.checkNotNull (limit, "null limit supplied");
+        Preconditions.checkNotNull (resumed, "null checkpoint supplied");
+        Preconditions.checkArgument (0L < period, "bad period: %s", period);
+        final Progress progress =
+            new Progress (stores, codes, limit, resumed);
+        progress.pool.scheduleWithFixedDelay (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                progress.report (false);
+            }
+        }, period, period, TimeUnit.SECONDS);
+        return progress;
+    }
+
+    /**
+     * The method that counts the contents of each store, on a thread of
+     * its own.
+     *
+     * <p>Until the contents are counted, the percentage done and the time
+     * left are not reported. The count is cancelled if the scan is over
+     * first</p>
+     * @param jdbc provides access to the database, with a connection not
+     *             used for reading contents
+     */
+    void counting (final JDBCConnection jdbc)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        this.pool.execute (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                final long start = System.nanoTime ();
+                try (Statement stmt = jdbc.connection.createStatement (
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+                {
+                    Progress.this.counter = stmt;
+                    // read after publishing the statement: either the count
+                    // does not start or finish cancels it
+                    if (Progress.this.finished) return;
+                    for (Map.Entry <String, Long> entry :
+                        DCReader.counts (stmt).entrySet ())
+                    {
+                        final int index =
+                            Progress.this.stores.indexOf (entry.getKey ());
+                        if (-1 != index)
+                        {
+                            Progress.this.totals.set (index, entry.getValue ());
+                        }
+                    }
+                    System.out.println ("spent " + NanoTime.humanString (
+                        System.nanoTime () - start) + " to count contents");
+                }
+                catch (SQLException | RuntimeException e)
+                {
+                    // the scan goes on, with no percentage done
+                    if (! Progress.this.finished)
+                    {
+                        System.err.println ("failed counting contents: " + e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The method that counts a row read
+     * @param store is the index of the content's store
+     */
+    void read (int store)
+    {
+        if (-1 != store)
+        {
+            this.counters.add (store * 2, 1L);
+        }
+    }
+
+    /**
+     * The method that counts a file checked
+     * @param store is the index of the content's store
+     */
+    void checked (int store)
+    {
+        if (-1 != store)
+        {
+            this.counters.add (store * 2 + 1, 1L);
+        }
+    }
+
+    /**
+     * The method that counts the contents read from an iterator
+     * @param it provides the contents
+     * @return the contents, in the same order
+     */
+    Iterator <DecoratedContent> reading (final Iterator <DecoratedContent> it)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        return new AbstractIterator <DecoratedContent> ()
+        {
+            @Override
+            protected DecoratedContent computeNext ()
+            {
+                if (! it.hasNext ()) return endOfData ();
+                final DecoratedContent dc = it.next ();
+                read (dc.content.storeIndex);
+                return dc;
+            }
+        };
+    }
+
+    /**
+     * The method that counts the rows of the batches read from an iterator
+     * @param it provides the batches
+     * @return the batches, in the same order
+     */
+    Iterator <ContentBatch> readingBatches (final Iterator <ContentBatch> it)
+    {
+        Preconditions.checkNotNull (it, "null iterator supplied");
+        return new AbstractIterator <ContentBatch> ()
+        {
+            @Override
+            protected ContentBatch computeNext ()
+            {
+                if (! it.hasNext ()) return endOfData ();
+                final ContentBatch batch = it.next ();
+                // rows are in store's order: counts each run of rows once
+                final int size = batch.size ();
+                int from = 0;
+                for (int row = 1; row <= size; row++)
+                {
+                    if ((size == row) ||
+                        (batch.storeIndex (row) != batch.storeIndex (from)))
+                    {
+                        if (-1 != batch.storeIndex (from))
+                        {
+                            Progress.this.counters.add (
+                                batch.storeIndex (from) * 2, row - from);
+                        }
+                        from = row;
+                    }
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * The method that stops reporting the progress, reporting it a last
+     * time
+     */
+    void finish ()
+    {
+        this.finished = true;
+        // the count is of no use any more: the query cannot be interrupted
+        final Statement counter = this.counter;
+        if (null != counter)
+        {
+            try
+            {
+                counter.cancel ();
+            }
+            catch (SQLException e)
+            {
+                System.err.println ("failed cancelling count: " + e);
+            }
+        }
+        this.pool.shutdownNow ();
+        try
+        {
+            this.pool.awaitTermination (1L, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+        }
+        report (true);
+    }
+
+    /**
+     * The method that reports the progress
+     * @param last indicates whether this is the last report: the rates are
+     *             then the averages of the whole scan
+     */
+    private void report (boolean last)
+    {
+        final long now = System.nanoTime ();
+        final double elapsed = (now - this.reported) / 1e9;
+        // until the window is over, the rates are the averages of the scan
+        final double weight = last ? 1.0 : Math.max (
+            1.0 - Math.exp (-elapsed / WINDOW),
+            (double) (now - this.reported) / (now - this.start));
+        final int count = this.done.length;
+        final StringBuilder stores = new StringBuilder ();
+        long read = 0L;
+        long checked = 0L;
+        long total = 0L;
+        long left = 0L;
+        boolean known = true;
+        for (int index = 0; index < count; index++)
+        {
+            final long storeread = this.counters.sum (index * 2);
+            final long storechecked = this.counters.sum (index * 2 + 1);
+            final long storetotal = this.totals.get (index);
+            final double readrate = last ?
+                rate (storeread, now - this.start) :
+                average (this.readrates [index],
+                    rate (storeread - this.reads [index], now - this.reported),
+                    weight);
+            final double checkrate = last ?
+                rate (storechecked, now - this.start) :
+                average (this.checkrates [index],
+                    rate (storechecked - this.checks [index],
+                        now - this.reported),
+                    weight);
+            final boolean active = (storechecked != this.checks [index]) ||
+                (storeread != this.reads [index]);
+            this.reads [index] = storeread;
+            this.checks [index] = storechecked;
+            this.readrates [index] = readrate;
+            this.checkrates [index] = checkrate;
+            read += storeread;
+            checked += storechecked;
+            if (-1L == storetotal)
+            {
+                known = false;
+                continue;
+            }
+            final long storedone =
+                this.done [index] ? storetotal : storechecked;
+            total += storetotal;
+            left += Math.max (0L, storetotal - storedone);
+            if ((active) && (! last))
+            {
+                stores.append ("\n  ").append (
+                    this.stores.get (index).name).append (": {");
+                append (stores, storechecked, storedone, readrate,
+                    checkrate, Optional.of (storetotal), true);
+                stores.append ('}');
+            }
+        }
+        final StringBuilder sb = new StringBuilder ("progress: {");
+        final double readrate = last ? rate (read, now - this.start) :
+            average (this.readrate, rate (read - this.read,
+                now - this.reported), weight);
+        final double checkrate = last ? rate (checked, now - this.start) :
+            average (this.checkrate, rate (checked - this.checked,
+                now - this.reported), weight);
+        // the time left is of no use once done
+        append (sb, checked, total - left, readrate, checkrate,
+            known ? Optional.of (total) : Optional.<Long>absent (), ! last);
+        sb.append (", elapsed: ").append (
+            NanoTime.humanString (now - this.start)).
+            append (", total errors: ").append (
+                this.codes.total () - this.codes.count (Checks.Code.OK));
+        if (this.limit.isPresent ())
+        {
+            sb.append (", limit: ").append (this.limit.get ().limit ()).
+                append (", p99: ").append (
+                    NanoTime.humanString (this.limit.get ().p99 ()));
+        }
+        sb.append ('}').append (stores);
+        this.read = read;
+        this.checked = checked;
+        this.readrate = readrate;
+        this.checkrate = checkrate;
+        this.reported = now;
+        System.out.println (sb);
+        System.out.flush ();
+    }
+
+    /**
+     * The method that appends the progress of some contents
+     * @param sb is the builder to append to
+     * @param checked is the number of files checked
+     * @param done is the number of contents done, checked before resuming
+     *             included
+     * @param readrate is the rate of rows read, per second
+     * @param checkrate is the rate of files checked, per second
+     * @param total is the number of contents if known
+     * @param eta indicates whether to report the time left
+     */
+    private static void append (StringBuilder sb, long checked, long done,
+        double readrate, double checkrate, Optional <Long> total,
+        boolean eta)
+    {
+        if (total.isPresent ())
+        {
+            final long all = total.get ();
+            sb.append ("done: ").append (String.format ("%.1f%%",
+                (0L == all) ? 100.0 : 100.0 * Math.min (done, all) / all)).
+                append (", ");
+        }
+        sb.append ("checked: ").append (checked);
+        if (total.isPresent ())
+        {
+            sb.append (" of ~").append (total.get ());
+        }
+        sb.append (", rows/s: ").append (Math.round (readrate)).
+            append (", files/s: ").append (Math.round (checkrate));
+        if ((total.isPresent ()) && (eta))
+        {
+            final long left = Math.max (0L, total.get () - done);
+            sb.append (", eta: ").append ((0L == left) ? "0s" :
+                (0.0 < checkrate) ? NanoTime.humanString (
+                    (long) (left / checkrate * 1e9)) : "?");
+        }
+    }
+
+    /**
+     * The method that returns a rate
+     * @param count is the number of events
+     * @param nanos is the time the events took
+     * @return the number of events per second
+     */
+    private static double rate (long count, long nanos)
+    {
+        return (0L >= nanos) ? 0.0 : count * 1e9 / nanos;
+    }
+
+    /**
+     * The method that returns a moving average
+     * @param average is the previous average
+     * @param value is the last value
+     * @param weight is the weight of the last value
+     * @return the new average
+     */
+    private static double average (double average, double value, double weight)
+    {
+        return average + (value - average) * weight;
+    }
+
+    private Progress (Stores stores, CodeCounters codes,
+        Optional <AdaptiveLimit> limit, Optional <Checkpoint> resumed)
+    {
+        final int count = stores.all.size ();
+        this.stores = stores;
+        this.codes = codes;
+        this.limit = limit;
+        // the rows read, then the files checked, of each store
+        this.counters = StripedCounters.create (Math.max (1, count * 2));
+        this.totals = new AtomicLongArray (count);
+        for (int index = 0; index < count; index++)
+        {
+            this.totals.set (index, -1L);
+        }
+        this.done = new boolean [count];
+        for (int index = 0; (resumed.isPresent ()) && (index < count); index++)
+        {
+            // contents are read in store's identifier order; the contents
+            // of the checkpoint's store checked before it are not known
+            this.done [index] = 0 > stores.get (index).id.compareTo (
+                resumed.get ().store);
+        }
+        this.reads = new long [count];
+        this.checks = new long [count];
+        this.readrates = new double [count];
+        this.checkrates = new double [count];
+        this.start = System.nanoTime ();
+        this.reported = this.start;
+        // one thread reporting, one counting contents
+        this.pool = Executors.newScheduledThreadPool (2,
+            new ThreadFactoryBuilder ().setNameFormat ("progress-%d").
+                setDaemon (true).build ());
+    }
+    private final Stores stores;
+    private final CodeCounters codes;
+    private final Optional <AdaptiveLimit> limit;
+    private final StripedCounters counters;
+    private final AtomicLongArray totals; // by store; -1 until counted
+    private final ScheduledExecutorService pool;
+    private final long start;
+    private final boolean [] done; // the stores done before resuming
+    private volatile Statement counter; // counting contents if any
+    private volatile boolean finished;
+    // the state of the reports, only accessed by the reporting thread
+    private final long [] reads;
+    private final long [] checks;
+    private final double [] readrates;
+    private final double [] checkrates;
+    private long reported;
+    private long read;
+    private long checked;
+    private double readrate;
+    private double checkrate;
+}
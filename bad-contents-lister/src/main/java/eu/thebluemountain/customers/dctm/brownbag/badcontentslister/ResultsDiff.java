@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedSet;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+/**
+ * The class that compares the results of two runs.
+ *
+ * <p>Both results files are in store and ticket's order, as contents are
+ * read: they are merged as two sorted streams, one key (store and ticket)
+ * at a time, so that the memory used does not depend on the number of
+ * contents. The result of a key is the first failure of its contents if
+ * any, OK otherwise.</p>
+ */
+final class ResultsDiff
+{
+    /**
+     * The kinds of differences
+     */
+    enum Kind
+    {
+        /**
+         * OK in the older run, failing in the newer one
+         */
+        BROKEN,
+        /**
+         * Failing in the older run, OK in the newer one
+         */
+        FIXED,
+        /**
+         * Failing in both runs, with different codes
+         */
+        CHANGED,
+        /**
+         * Only in the newer run, failing
+         */
+        ADDED,
+        /**
+         * Only in the older run, failing
+         */
+        REMOVED
+    }
+
+    /**
+     * The interface for classes that receive the differences
+     */
+    interface Listener
+    {
+        /**
+         * The method that receives a difference
+         * @param kind is the difference's kind
+         * @param store is the store's identifier
+         * @param ticket is the ticket
+         * @param before is the code in the older run; null if absent
+         * @param after is the code in the newer run; null if absent
+         * @throws IOException when reporting the difference
+         */
+        void accept (Kind kind, String store, int ticket,
+            Checks.Code before, Checks.Code after) throws IOException;
+    }
+
+    /**
+     * The class that carries the number of keys of each kind
+     */
+    static final class Summary
+    {
+        long same;
+        long broken;
+        long fixed;
+        long changed;
+        long added; // failing or not
+        long removed; // failing or not
+
+        @Override
+        public String toString ()
+        {
+            return MoreObjects.toStringHelper (this).
+                add ("same", this.same).
+                add ("broken", this.broken).
+                add ("fixed", this.fixed).
+                add ("changed", this.changed).
+                add ("added", this.added).
+                add ("removed", this.removed).
+                toString ();
+        }
+        private Summary () { super (); }
+    }
+
+    /**
+     * The method that compares the results of two runs
+     * @param older carries the results of the older run
+     * @param newer carries the results of the newer run
+     * @param listener receives the differences
+     * @return the summary of the comparison
+     * @throws IOException when reading the results or reporting
+     */
+    static Summary diff (
+        ResultsLog.Reader older, ResultsLog.Reader newer, Listener listener)
+        throws IOException
+    {
+        Preconditions.checkNotNull (older, "null older supplied");
+        Preconditions.checkNotNull (newer, "null newer supplied");
+        Preconditions.checkNotNull (listener, "null listener supplied");
+        // stores get compared by their rank in both runs' stores
+        final SortedSet <String> ids = Sets.newTreeSet (
+            Iterables.concat (older.stores, newer.stores));
+        final Cursor before = new Cursor (older, ids);
+        final Cursor after = new Cursor (newer, ids);
+        final Summary summary = new Summary ();
+        before.next ();
+        after.next ();
+        while ((before.present) || (after.present))
+        {
+            final int order = (! before.present) ? 1 :
+                (! after.present) ? -1 : before.compareTo (after);
+            if (0 > order)
+            {
+                summary.removed++;
+                if (Checks.Code.OK != before.code)
+                {
+                    listener.accept (Kind.REMOVED, before.store (),
+                        before.ticket, before.code, null);
+                }
+                before.next ();
+            }
+            else if (0 < order)
+            {
+                summary.added++;
+                if (Checks.Code.OK != after.code)
+                {
+                    listener.accept (Kind.ADDED, after.store (),
+                        after.ticket, null, after.code);
+                }
+                after.next ();
+            }
+            else
+            {
+                if (before.code == after.code)
+                {
+                    summary.same++;
+                }
+                else
+                {
+                    final Kind kind = (Checks.Code.OK == before.code) ?
+                        Kind.BROKEN : (Checks.Code.OK == after.code) ?
+                        Kind.FIXED : Kind.CHANGED;
+                    switch (kind)
+                    {
+                        case BROKEN:
+                            summary.broken++;
+                            break;
+                        case FIXED:
+                            summary.fixed++;
+                            break;
+                        default:
+                            summary.changed++;
+                            break;
+                    }
+                    listener.accept (kind, after.store (), after.ticket,
+                        before.code, after.code);
+                }
+                before.next ();
+                after.next ();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * The class that reads the results one key at a time
+     */
+    private static final class Cursor
+    {
+        boolean present; // whether there is a current key
+        int rank; // the current store's rank
+        int ticket;
+        Checks.Code code; // the first failure of the key if any
+
+        /**
+         * @return the identifier of the current key's store
+         */
+        String store ()
+        {
+            return this.reader.stores.get (this.index);
+        }
+
+        /**
+         * The method that compares the current keys of 2 cursors
+         */
+        int compareTo (Cursor other)
+        {
+            return (this.rank != other.rank) ?
+                ((this.rank < other.rank) ? -1 : 1) :
+                ((this.ticket == other.ticket) ? 0 :
+                    ((this.ticket < other.ticket) ? -1 : 1));
+        }
+
+        /**
+         * The method that moves to the next key
+         */
+        void next () throws IOException
+        {
+            this.present = this.pending;
+            if (! this.pending) return;
+            this.index = this.reader.storeIndex ();
+            this.rank = this.ranks [this.index];
+            this.ticket = this.reader.ticket ();
+            this.code = this.reader.code ();
+            while ((this.pending = this.reader.next ()) &&
+                (this.index == this.reader.storeIndex ()) &&
+                (this.ticket == this.reader.ticket ()))
+            {
+                if (Checks.Code.OK == this.code)
+                {
+                    this.code = this.reader.code ();
+                }
+            }
+            if ((this.pending) &&
+                ((this.ranks [this.reader.storeIndex ()] < this.rank) ||
+                    ((this.ranks [this.reader.storeIndex ()] == this.rank) &&
+                        (this.reader.ticket () < this.ticket))))
+            {
+                throw new IOException ("results not in key order");
+            }
+        }
+
+        private Cursor (ResultsLog.Reader reader, SortedSet <String> ids)
+            throws IOException
+        {
+            this.reader = reader;
+            final List <String> stores = reader.stores;
+            this.ranks = new int [stores.size ()];
+            for (int index = 0; index < this.ranks.length; index++)
+            {
+                this.ranks [index] =
+                    ids.headSet (stores.get (index)).size ();
+            }
+            this.pending = reader.next ();
+        }
+        private final ResultsLog.Reader reader;
+        private final int [] ranks; // the stores' ranks, by index
+        private int index; // the current store's index
+        private boolean pending; // whether the reader is on the next key
+    }
+
+    private ResultsDiff () { super (); }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The class that records the result of every check, OK ones included, in a
+ * compact binary file.
+ *
+ * <p>The file starts with a header listing the identifiers of the stores.
+ * It then consists in blocks of fixed width records, each block being
+ * compressed on its own. A record carries:
+ * <ul>
+ *  <li>the index of the content's store in the header (2 bytes)</li>
+ *  <li>the content's ticket (4 bytes)</li>
+ *  <li>the expected size (4 bytes)</li>
+ *  <li>the actual size, -1 if the file was not found or could not be
+ *  read (8 bytes)</li>
+ *  <li>the code's ordinal (1 byte)</li>
+ *  <li>the time the check took, in microseconds (4 bytes)</li>
+ *  <li>when the result was recorded, in milliseconds (8 bytes)</li>
+ * </ul>
+ * Records are in the order contents were checked.</p>
+ */
+public final class ResultsLog
+{
+    /**
+     * The magic number at the start of results files
+     */
+    private static final int MAGIC = 0x44435252;
+
+    /**
+     * The version of the results file's format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of a record, in bytes
+     */
+    private static final int RECORD = 31;
+
+    /**
+     * The number of records of a block
+     */
+    private static final int BLOCK = 1 << 15;
+
+    /**
+     * The codes, by ordinal
+     */
+    private static final Checks.Code [] CODES = Checks.Code.values ();
+
+    /**
+     * The method that creates the writer of a results file
+     * @param file is the results file, replaced if it exists
+     * @param stores carries the stores
+     * @return the matching writer
+     * @throws IOException when writing the file's header
+     */
+    static Writer create (Path file, Stores stores) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        final int size = stores.all.size ();
+        Preconditions.checkArgument (
+            Short.MAX_VALUE >= size, "too many stores: %s", size);
+        final DataOutputStream out = new DataOutputStream (
+            new BufferedOutputStream (Files.newOutputStream (file), 1 << 20));
+        try
+        {
+            out.writeInt (MAGIC);
+            out.writeInt (VERSION);
+            out.writeInt (size);
+            for (int index = 0; index < size; index++)
+            {
+                out.writeUTF (stores.get (index).id);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            out.close ();
+            throw e;
+        }
+        return new Writer (out);
+    }
+
+    /**
+     * The class that writes the results.
+     *
+     * <p>It is expected to be invoked by a single thread</p>
+     */
+    static final class Writer implements Closeable
+    {
+        /**
+         * The method that records the result of a content
+         * @param content is the content, read with the log's stores
+         * @param result is the content's result
+         * @param latency is the time the check took, in nanoseconds
+         * @throws IllegalStateException when writing the file
+         */
+        void accept (Content content, Checks.Result result, long latency)
+            throws IllegalStateException
+        {
+            accept (content.storeIndex, content.ticket,
+                content.size, result, latency);
+        }
+
+        /**
+         * The method that records the result of a content
+         * @param store is the index of the content's store; -1 if none
+         * @param ticket is the content's ticket
+         * @param size is the content's expected size
+         * @param result is the content's result
+         * @param latency is the time the check took, in nanoseconds
+         * @throws IllegalStateException when writing the file
+         */
+        void accept (
+            int store, int ticket, int size, Checks.Result result,
+            long latency) throws IllegalStateException
+        {
+            if (-1 == store)
+            {
+                // no such store: the content is reported, not recorded as
+                // results are keyed by store's index
+                return;
+            }
+            this.block.putShort ((short) store).
+                putInt (ticket).
+                putInt (size).
+                putLong (actualOf (size, result)).
+                put ((byte) result.code.ordinal ()).
+                putInt ((int) Math.min (
+                    Integer.MAX_VALUE, latency / 1000L)).
+                putLong (System.currentTimeMillis ());
+            if (! this.block.hasRemaining ())
+            {
+                try
+                {
+                    write ();
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException (e);
+                }
+            }
+        }
+
+        @Override
+        public void close () throws IOException
+        {
+            try
+            {
+                write ();
+            }
+            finally
+            {
+                try
+                {
+                    this.out.close ();
+                }
+                finally
+                {
+                    this.deflater.end ();
+                }
+            }
+        }
+
+        /**
+         * The method that returns the actual size of the file, as far as
+         * the result tells
+         */
+        private static long actualOf (int size, Checks.Result result)
+        {
+            switch (result.code)
+            {
+                case OK:
+                case BADHASH:
+                    return size;
+                case BADSIZE:
+                    return Checks.Result.Size.class.cast (result).actual;
+                case EMPTY:
+                    return 0L;
+                default:
+                    return -1L;
+            }
+        }
+
+        /**
+         * The method that compresses and writes the records of the block
+         */
+        private void write () throws IOException
+        {
+            final int length = this.block.position ();
+            if (0 == length) return;
+            this.deflater.reset ();
+            this.deflater.setInput (this.block.array (), 0, length);
+            this.deflater.finish ();
+            int compressed = 0;
+            while (! this.deflater.finished ())
+            {
+                if (this.buffer.length == compressed)
+                {
+                    this.buffer = Arrays.copyOf (
+                        this.buffer, compressed * 2);
+                }
+                compressed += this.deflater.deflate (
+                    this.buffer, compressed, this.buffer.length - compressed);
+            }
+            this.out.writeInt (length / RECORD);
+            this.out.writeInt (compressed);
+            this.out.write (this.buffer, 0, compressed);
+            this.block.clear ();
+        }
+
+        private Writer (DataOutputStream out)
+        {
+            this.out = out;
+            this.block = ByteBuffer.allocate (BLOCK * RECORD);
+            this.buffer = new byte [BLOCK * RECORD / 2];
+            this.deflater = new Deflater (Deflater.BEST_SPEED);
+        }
+        private final DataOutputStream out;
+        private final ByteBuffer block; // the records not written yet
+        private byte [] buffer; // the compressed block
+        private final Deflater deflater;
+    }
+
+    /**
+     * The method that opens a results file
+     * @param file is the results file
+     * @return the reader of the results
+     * @throws IOException when reading the file's header
+     */
+    public static Reader read (Path file) throws IOException
+    {
+        Preconditions.checkNotNull (file, "null file supplied");
+        final DataInputStream in = new DataInputStream (
+            new BufferedInputStream (Files.newInputStream (file), 1 << 20));
+        try
+        {
+            if (MAGIC != in.readInt ())
+            {
+                throw new IOException ("not a results file: " + file);
+            }
+            final int version = in.readInt ();
+            if (VERSION != version)
+            {
+                throw new IOException (
+                    "unsupported results version " + version + ": " + file);
+            }
+            final int size = in.readInt ();
+            ImmutableList.Builder <String> stores = ImmutableList.builder ();
+            for (int index = 0; index < size; index++)
+            {
+                stores.add (in.readUTF ());
+            }
+            return new Reader (in, stores.build ());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            in.close ();
+            throw e;
+        }
+    }
+
+    /**
+     * The class that reads the results back, one record at a time.
+     *
+     * <p>{@link #next()} moves to the next record, whose fields are then
+     * returned by the accessors</p>
+     */
+    public static final class Reader implements Closeable
+    {
+        /**
+         * The identifiers of the stores, by index
+         */
+        public final ImmutableList <String> stores;
+
+        /**
+         * The method that moves to the next record
+         * @return whether there is one
+         * @throws IOException when reading the file
+         */
+        public boolean next () throws IOException
+        {
+            if (! this.block.hasRemaining ())
+            {
+                if (! read ()) return false;
+            }
+            this.store = this.block.getShort ();
+            this.ticket = this.block.getInt ();
+            this.expected = this.block.getInt ();
+            this.actual = this.block.getLong ();
+            this.code = this.block.get ();
+            this.latency = this.block.getInt ();
+            this.timestamp = this.block.getLong ();
+            return true;
+        }
+
+        /**
+         * @return the identifier of the record's store
+         */
+        public String store () { return this.stores.get (this.store); }
+
+        /**
+         * @return the index of the record's store
+         */
+        public int storeIndex () { return this.store; }
+
+        /**
+         * @return the record's ticket
+         */
+        public int ticket () { return this.ticket; }
+
+        /**
+         * @return the expected size
+         */
+        public int expected () { return this.expected; }
+
+        /**
+         * @return the actual size; -1 if the file was not found or could
+         *         not be read
+         */
+        public long actual () { return this.actual; }
+
+        /**
+         * @return the result's code
+         */
+        public Checks.Code code () { return CODES [this.code]; }
+
+        /**
+         * @return the time the check took, in microseconds
+         */
+        public int latency () { return this.latency; }
+
+        /**
+         * @return when the result was recorded, in milliseconds
+         */
+        public long timestamp () { return this.timestamp; }
+
+        @Override
+        public void close () throws IOException
+        {
+            try
+            {
+                this.inflater.end ();
+            }
+            finally
+            {
+                this.in.close ();
+            }
+        }
+
+        /**
+         * The method that reads and inflates the next block
+         * @return whether there is one
+         */
+        private boolean read () throws IOException
+        {
+            final int records;
+            try
+            {
+                records = this.in.readInt ();
+            }
+            catch (EOFException e)
+            {
+                return false;
+            }
+            final int compressed = this.in.readInt ();
+            if ((0 >= records) || (BLOCK < records) || (0 > compressed))
+            {
+                throw new IOException ("corrupted results block");
+            }
+            if (this.buffer.length < compressed)
+            {
+                this.buffer = new byte [compressed];
+            }
+            this.in.readFully (this.buffer, 0, compressed);
+            final int length = records * RECORD;
+            this.inflater.reset ();
+            this.inflater.setInput (this.buffer, 0, compressed);
+            try
+            {
+                int inflated = 0;
+                while ((length > inflated) && (! this.inflater.finished ()))
+                {
+                    final int count = this.inflater.inflate (
+                        this.block.array (), inflated, length - inflated);
+                    if ((0 == count) && (this.inflater.needsInput ()))
+                    {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (length != inflated)
+                {
+                    throw new IOException ("corrupted results block");
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new IOException ("corrupted results block", e);
+            }
+            this.block.clear ();
+            this.block.limit (length);
+            return true;
+        }
+
+        private Reader (DataInputStream in, ImmutableList <String> stores)
+        {
+            this.in = in;
+            this.stores = stores;
+            this.block = ByteBuffer.allocate (BLOCK * RECORD);
+            this.block.limit (0);
+            this.buffer = new byte [BLOCK * RECORD / 2];
+            this.inflater = new Inflater ();
+        }
+        private final DataInputStream in;
+        private final ByteBuffer block; // the records of the current block
+        private byte [] buffer; // the compressed block
+        private final Inflater inflater;
+        private short store;
+        private int ticket;
+        private int expected;
+        private long actual;
+        private byte code;
+        private int latency;
+        private long timestamp;
+    }
+
+    private ResultsLog () { super (); }
+}
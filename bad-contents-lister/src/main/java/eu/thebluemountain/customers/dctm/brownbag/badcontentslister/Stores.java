@@ -114,6 +114,30 @@ public class Stores
         return Maps.uniqueIndex (this.all, Store.ID);
     }
 
+    /**
+     * The method that returns the index of a store, of use when referring
+     * to stores by a small number
+     * @param id is the store's identifier
+     * @return the store's index; -1 if there is no such store
+     */
+    public int indexOf (String id)
+    {
+        final Integer index = this.indexes.get (id);
+        return (null == index) ? -1 : index;
+    }
+
+    /**
+     * The method that returns a store given its index
+     * @param index is the store's index
+     * @return the store
+     * @throws IndexOutOfBoundsException if there is no such store
+     */
+    public Store get (int index)
+    {
+        Preconditions.checkElementIndex (index, this.indexed.length);
+        return this.indexed [index];
+    }
+
     /**
      * @return the stores identified by related name
      */
@@ -158,5 +182,15 @@ public class Stores
     private Stores (ImmutableSet <Store> all)
     {
         this.all = all;
+        this.indexed = all.toArray (new Store [all.size ()]);
+        ImmutableMap.Builder <String, Integer> indexes =
+            ImmutableMap.builder ();
+        for (int index = 0; index < this.indexed.length; index++)
+        {
+            indexes.put (this.indexed [index].id, index);
+        }
+        this.indexes = indexes.build ();
     }
+    private final Store [] indexed; // the stores, by index
+    private final ImmutableMap <String, Integer> indexes;
 }
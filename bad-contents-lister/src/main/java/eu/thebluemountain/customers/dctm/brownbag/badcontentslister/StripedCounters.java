@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The class that counts events updated by many threads.
+ *
+ * <p>Each counter is split into stripes, a thread updating the stripe
+ * matching its identifier: threads updating the same counter seldom touch
+ * the same cache line, so that updates neither lock nor contend. Reading a
+ * counter sums its stripes: the value is exact once updates are over, a
+ * close estimate otherwise</p>
+ */
+final class StripedCounters
+{
+    /**
+     * The number of longs in a cache line: the stripes of a thread start on
+     * a line of their own
+     */
+    private static final int LINE = 8;
+
+    /**
+     * The method that creates new counters, all 0
+     * @param counters is the number of counters
+     * @return the matching counters
+     */
+    static StripedCounters create (int counters)
+    {
+        Preconditions.checkArgument (
+            0 < counters, "bad counters: %s", counters);
+        // the smallest power of 2 of at least twice the processors, so that
+        // a stripe is picked with a mask
+        final int cpus = Runtime.getRuntime ().availableProcessors ();
+        final int stripes = Integer.highestOneBit (cpus * 2 - 1) << 1;
+        return new StripedCounters (counters, stripes);
+    }
+
+    /**
+     * @return the number of counters
+     */
+    int size () { return this.counters; }
+
+    /**
+     * The method that adds to a counter
+     * @param counter is the counter's index
+     * @param delta is the value to add
+     */
+    void add (int counter, long delta)
+    {
+        final int stripe =
+            (int) Thread.currentThread ().getId () & (this.stripes - 1);
+        this.cells.addAndGet (stripe * this.width + counter, delta);
+    }
+
+    /**
+     * The method that returns the value of a counter
+     * @param counter is the counter's index
+     * @return the sum of the counter's stripes
+     */
+    long sum (int counter)
+    {
+        Preconditions.checkElementIndex (counter, this.counters);
+        long sum = 0L;
+        for (int stripe = 0; stripe < this.stripes; stripe++)
+        {
+            sum += this.cells.get (stripe * this.width + counter);
+        }
+        return sum;
+    }
+
+    private StripedCounters (int counters, int stripes)
+    {
+        this.counters = counters;
+        this.stripes = stripes;
+        // rounded up to whole lines, plus one line so that the counters of
+        // adjacent stripes never share a line
+        this.width = ((counters + LINE - 1) / LINE + 1) * LINE;
+        this.cells = new AtomicLongArray (stripes * this.width);
+    }
+    private final int counters;
+    private final int stripes;
+    private final int width; // the number of cells per stripe
+    private final AtomicLongArray cells;
+}
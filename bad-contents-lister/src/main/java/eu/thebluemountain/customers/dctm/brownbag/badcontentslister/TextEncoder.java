@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.google.common.base.Preconditions;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The class that encodes the fields of text records as UTF-8, straight into
+ * a buffer written to a channel when full.
+ *
+ * <p>No string is created: numbers, booleans and instants are encoded
+ * digit by digit and characters are encoded one at a time, with a fast
+ * path for ASCII ones. Free text is escaped so that records can be split
+ * back into fields: the separator, the backslash, carriage returns and
+ * line feeds are preceded by a backslash (the latter two as {@code \r} and
+ * {@code \n}).<br>
+ * It is expected to be invoked by a single thread.</p>
+ */
+final class TextEncoder implements Closeable, Flushable
+{
+    /**
+     * The number of milliseconds in a day
+     */
+    private static final long DAY = 86400000L;
+
+    /**
+     * The method that creates a new encoder
+     * @param channel is the channel to write to, closed with the encoder
+     * @param capacity is the size of the buffer, in bytes
+     * @param separator is the fields' separator, an ASCII character
+     * @return the matching encoder
+     */
+    static TextEncoder create (
+        WritableByteChannel channel, int capacity, char separator)
+    {
+        Preconditions.checkNotNull (channel, "null channel supplied");
+        Preconditions.checkArgument (
+            64 <= capacity, "bad capacity: %s", capacity);
+        Preconditions.checkArgument (
+            (0x80 > separator) && ('\\' != separator) &&
+                ('\n' != separator) && ('\r' != separator),
+            "bad separator: %s", separator);
+        return new TextEncoder (channel, capacity, (byte) separator);
+    }
+
+    /**
+     * The method that encodes the separator
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder separator () throws IOException
+    {
+        return put (this.separator);
+    }
+
+    /**
+     * The method that ends the record
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder newLine () throws IOException
+    {
+        return put ((byte) '\n');
+    }
+
+    /**
+     * The method that encodes text that needs no escaping, such as
+     * identifiers, digests and the codes' names
+     * @param text is the text
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder ascii (CharSequence text) throws IOException
+    {
+        final int length = text.length ();
+        for (int index = 0; index < length; index++)
+        {
+            final char c = text.charAt (index);
+            if (0x80 > c)
+            {
+                put ((byte) c);
+            }
+            else
+            {
+                index = encode (text, index);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The method that encodes free text, escaping the characters that
+     * would split the record
+     * @param text is the text
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder text (CharSequence text) throws IOException
+    {
+        final int length = text.length ();
+        for (int index = 0; index < length; index++)
+        {
+            final char c = text.charAt (index);
+            if (0x80 <= c)
+            {
+                index = encode (text, index);
+            }
+            else if ('\n' == c)
+            {
+                put ((byte) '\\').put ((byte) 'n');
+            }
+            else if ('\r' == c)
+            {
+                put ((byte) '\\').put ((byte) 'r');
+            }
+            else
+            {
+                if ((this.separator == c) || ('\\' == c))
+                {
+                    put ((byte) '\\');
+                }
+                put ((byte) c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The method that encodes a number in decimal
+     * @param value is the number
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder number (long value) throws IOException
+    {
+        if (Long.MIN_VALUE == value)
+        {
+            return ascii (Long.toString (value));
+        }
+        if (0L > value)
+        {
+            put ((byte) '-');
+            value = -value;
+        }
+        int index = this.digits.length;
+        do
+        {
+            this.digits [--index] = (byte) ('0' + (value % 10L));
+            value /= 10L;
+        }
+        while (0L != value);
+        return put (this.digits, index, this.digits.length - index);
+    }
+
+    /**
+     * The method that encodes a boolean
+     * @param value is the boolean
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder bool (boolean value) throws IOException
+    {
+        return ascii (value ? "true" : "false");
+    }
+
+    /**
+     * The method that encodes an instant in UTC, as an ISO date time such
+     * as {@code 2015-06-30T12:34:56.789Z}
+     * @param millis is the instant, in milliseconds
+     * @return this encoder
+     * @throws IOException when writing the buffer
+     */
+    TextEncoder instant (long millis) throws IOException
+    {
+        long days = millis / DAY;
+        long time = millis % DAY;
+        if (0L > time)
+        {
+            days--;
+            time += DAY;
+        }
+        // the civil date of the days since the epoch
+        final long shifted = days + 719468L; // since 0000-03-01
+        final long era = ((0L <= shifted) ? shifted : shifted - 146096L) /
+            146097L;
+        final long doe = shifted - era * 146097L;
+        final long yoe =
+            (doe - doe / 1460L + doe / 36524L - doe / 146096L) / 365L;
+        final long doy = doe - (365L * yoe + yoe / 4L - yoe / 100L);
+        final long mp = (5L * doy + 2L) / 153L;
+        final int day = (int) (doy - (153L * mp + 2L) / 5L + 1L);
+        final int month = (int) ((10L > mp) ? mp + 3L : mp - 9L);
+        final long year = yoe + era * 400L + ((2 >= month) ? 1L : 0L);
+        if ((0L > year) || (9999L < year))
+        {
+            return ascii (new DateTime (millis, DateTimeZone.UTC).toString ());
+        }
+        pad ((int) year, 4).put ((byte) '-').
+            pad (month, 2).put ((byte) '-').
+            pad (day, 2).put ((byte) 'T');
+        final int ms = (int) time;
+        return pad (ms / 3600000, 2).put ((byte) ':').
+            pad ((ms / 60000) % 60, 2).put ((byte) ':').
+            pad ((ms / 1000) % 60, 2).put ((byte) '.').
+            pad (ms % 1000, 3).put ((byte) 'Z');
+    }
+
+    /**
+     * The method that writes the bytes encoded so far to the channel
+     * @throws IOException when writing the buffer
+     */
+    @Override
+    public void flush () throws IOException
+    {
+        this.buffer.flip ();
+        while (this.buffer.hasRemaining ())
+        {
+            this.channel.write (this.buffer);
+        }
+        this.buffer.clear ();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+        try
+        {
+            flush ();
+        }
+        finally
+        {
+            this.channel.close ();
+        }
+    }
+
+    /**
+     * The method that encodes a positive number on a fixed number of
+     * digits, padded with zeros
+     */
+    private TextEncoder pad (int value, int width) throws IOException
+    {
+        for (int index = width - 1; 0 <= index; index--)
+        {
+            this.digits [index] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        return put (this.digits, 0, width);
+    }
+
+    /**
+     * The method that encodes the non ASCII character at supplied index
+     * @return the index of the last character encoded: the low surrogate
+     *         if the character is a high surrogate of a pair
+     */
+    private int encode (CharSequence text, int index) throws IOException
+    {
+        final char c = text.charAt (index);
+        if (0x800 > c)
+        {
+            put ((byte) (0xc0 | (c >> 6))).
+                put ((byte) (0x80 | (c & 0x3f)));
+            return index;
+        }
+        if ((Character.isHighSurrogate (c)) &&
+            (index + 1 < text.length ()) &&
+            (Character.isLowSurrogate (text.charAt (index + 1))))
+        {
+            final int cp = Character.toCodePoint (c, text.charAt (index + 1));
+            put ((byte) (0xf0 | (cp >> 18))).
+                put ((byte) (0x80 | ((cp >> 12) & 0x3f))).
+                put ((byte) (0x80 | ((cp >> 6) & 0x3f))).
+                put ((byte) (0x80 | (cp & 0x3f)));
+            return index + 1;
+        }
+        if (Character.isSurrogate (c))
+        {
+            // unpaired surrogate: encoded as the JDK encoders do
+            put ((byte) '?');
+            return index;
+        }
+        put ((byte) (0xe0 | (c >> 12))).
+            put ((byte) (0x80 | ((c >> 6) & 0x3f))).
+            put ((byte) (0x80 | (c & 0x3f)));
+        return index;
+    }
+
+    private TextEncoder put (byte value) throws IOException
+    {
+        if (! this.buffer.hasRemaining ())
+        {
+            flush ();
+        }
+        this.buffer.put (value);
+        return this;
+    }
+
+    private TextEncoder put (byte [] values, int offset, int length)
+        throws IOException
+    {
+        if (this.buffer.remaining () < length)
+        {
+            flush ();
+        }
+        this.buffer.put (values, offset, length);
+        return this;
+    }
+
+    private TextEncoder (
+        WritableByteChannel channel, int capacity, byte separator)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect (capacity);
+        this.separator = separator;
+        this.digits = new byte [20];
+    }
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte separator;
+    private final byte [] digits; // scratch for encoding numbers
+}
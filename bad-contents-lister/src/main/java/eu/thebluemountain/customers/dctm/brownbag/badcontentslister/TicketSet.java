@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister;
+
+/**
+ * The class that carries a set of tickets as a bitmap.
+ *
+ * <p>The 2^32 possible tickets are split in pages of 2^16 tickets, a page
+ * being allocated (as 8KB of bits) only when it holds a ticket. As tickets
+ * are allocated sequentially in a store, pages are dense: 100M tickets fit
+ * in about 12MB.<br>
+ * The set is not thread-safe while being filled; once filled, it can be
+ * queried concurrently.</p>
+ */
+public final class TicketSet
+{
+    /**
+     * The number of bits for the ticket's offset in its page
+     */
+    private static final int PAGEBITS = 16;
+
+    /**
+     * The number of longs in a page
+     */
+    private static final int PAGELONGS = (1 << PAGEBITS) >>> 6;
+
+    /**
+     * @return a new empty set
+     */
+    public static TicketSet create () { return new TicketSet (); }
+
+    /**
+     * The method that adds a ticket
+     * @param ticket is the ticket to add
+     * @return whether the ticket was not yet in the set
+     */
+    public boolean add (int ticket)
+    {
+        final int page = ticket >>> PAGEBITS;
+        long [] bits = this.pages [page];
+        if (null == bits)
+        {
+            bits = new long [PAGELONGS];
+            this.pages [page] = bits;
+        }
+        final int offset = ticket & ((1 << PAGEBITS) - 1);
+        final long mask = 1L << offset;
+        final int index = offset >>> 6;
+        if (0L != (bits [index] & mask))
+        {
+            return false;
+        }
+        bits [index] |= mask;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * The method that indicates whether the set contains a ticket
+     * @param ticket is the ticket
+     * @return whether the set contains it
+     */
+    public boolean contains (int ticket)
+    {
+        final long [] bits = this.pages [ticket >>> PAGEBITS];
+        if (null == bits) return false;
+        final int offset = ticket & ((1 << PAGEBITS) - 1);
+        return 0L != (bits [offset >>> 6] & (1L << offset));
+    }
+
+    /**
+     * @return the number of tickets in the set
+     */
+    public long size () { return this.size; }
+
+    @Override
+    public String toString ()
+    {
+        return "TicketSet {size: " + this.size + "}";
+    }
+
+    private TicketSet ()
+    {
+        this.pages = new long [1 << (32 - PAGEBITS)] [];
+        this.size = 0L;
+    }
+    private final long [][] pages;
+    private long size;
+}
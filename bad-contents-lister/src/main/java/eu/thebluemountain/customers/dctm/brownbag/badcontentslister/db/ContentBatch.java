@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db;
+
+import java.util.List;
+import java.util.Map;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Content;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.DecoratedContent;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Ids;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Parent;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Store;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Stores;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The class that carries a batch of contents as columns.
+ *
+ * <p>Rows carry primitive values: the store and the format are indexes
+ * into tables of the batch, the parent's identifier is encoded as a
+ * {@code long} (see {@link Ids}), the set time is in milliseconds. The contents
+ * are checked from these columns: a {@link DecoratedContent} is created
+ * only for the rows that require it, such as the ones being reported.<br>
+ * Rows are lean ones: the parent's meta data is not read, the contents
+ * carrying their parent's identifier only.</p>
+ */
+public final class ContentBatch extends DBIO.Batch
+{
+    /**
+     * The method that returns the store of a row
+     * @param row is the row's index
+     * @return the store; null if there is no such store
+     */
+    public Store store (int row)
+    {
+        final int index = this.stores [row];
+        return (-1 == index) ? null : this.indexed [index];
+    }
+
+    /**
+     * The method that returns the identifier of the store of a row
+     * @param row is the row's index
+     * @return the store's identifier, as read when there is no such store
+     */
+    public String storeId (int row)
+    {
+        final int index = this.stores [row];
+        return (-1 == index) ? this.unknowns [row] : this.indexed [index].id;
+    }
+
+    /**
+     * The method that returns the index of the store of a row
+     * @param row is the row's index
+     * @return the store's index; -1 if there is no such store
+     */
+    public int storeIndex (int row)
+    {
+        return this.stores [row];
+    }
+
+    /**
+     * The method that returns the ticket of a row
+     * @param row is the row's index
+     * @return the ticket
+     */
+    public int ticket (int row)
+    {
+        return this.tickets [row];
+    }
+
+    /**
+     * The method that returns the expected size of a row
+     * @param row is the row's index
+     * @return the size
+     */
+    public int size (int row)
+    {
+        return this.sizes [row];
+    }
+
+    /**
+     * The method that returns the set time of a row
+     * @param row is the row's index
+     * @return the set time, in milliseconds
+     */
+    public long modified (int row)
+    {
+        return this.modified [row];
+    }
+
+    /**
+     * The method that returns the file's extension of a row
+     * @param row is the row's index
+     * @return the extension if any; the same instance for all rows of a
+     * given format
+     */
+    public Optional <String> extension (int row)
+    {
+        final int index = this.stores [row];
+        return ((-1 != index) && this.indexed [index].extension) ?
+            this.extensions.get (this.formats [row]) :
+            Optional.<String>absent ();
+    }
+
+    /**
+     * The method that returns the content's hash of a row
+     * @param row is the row's index
+     * @return the hash if any
+     */
+    public Optional <String> hash (int row)
+    {
+        return Optional.fromNullable (this.hashes [row]);
+    }
+
+    /**
+     * The method that creates the content of a row
+     * @param row is the row's index
+     * @return the matching content, whose parent carries an identifier only
+     */
+    public DecoratedContent decorated (int row)
+    {
+        final String parent = Ids.toString (this.parents [row]);
+        final Content content = Content.create (
+            storeId (row), storeIndex (row), this.tickets [row], parent,
+            this.renditions [row], this.names.get (this.formats [row]),
+            this.pages [row], extension (row), this.sizes [row],
+            new DateTime (this.modified [row], DateTimeZone.UTC),
+            hash (row));
+        return DecoratedContent.create (content,
+            Parent.NONE.id.equals (parent) ? Parent.NONE :
+                Parent.create (parent, "", "", false));
+    }
+
+    /**
+     * The method that creates a new batch
+     * @param stores carries the stores
+     * @param extensions is the function which, given a format name,
+     *                   returns the matching file's extension if any
+     * @param capacity is the max number of rows in the batch
+     * @return the matching batch
+     */
+    static ContentBatch create (
+        Stores stores, Function <String, String> extensions, int capacity)
+    {
+        Preconditions.checkNotNull (stores, "null stores supplied");
+        Preconditions.checkNotNull (extensions, "null extensions supplied");
+        Preconditions.checkArgument (Short.MAX_VALUE > stores.all.size (),
+            "too many stores: %s", stores.all.size ());
+        return new ContentBatch (stores, extensions, capacity);
+    }
+
+    /**
+     * The method that returns the index of a store
+     * @param id is the store's identifier
+     * @return the matching index; -1 if there is no such store
+     */
+    short storeOf (String id)
+    {
+        // contents are read in store's order: mostly the same as before
+        if (! id.equals (this.store))
+        {
+            final int index = this.all.indexOf (id);
+            this.store = id;
+            this.index = (short) index;
+        }
+        return this.index;
+    }
+
+    /**
+     * The method that returns the index of a format, adding the format to
+     * the table if not known yet
+     * @param name is the format's name
+     * @return the matching index
+     */
+    int formatOf (String name)
+    {
+        Integer index = this.formatindexes.get (name);
+        if (null == index)
+        {
+            index = this.names.size ();
+            this.names.add (name);
+            this.extensions.add (Optional.fromNullable (
+                Strings.emptyToNull (this.resolver.apply (name))));
+            this.formatindexes.put (name, index);
+        }
+        return index;
+    }
+
+    private ContentBatch (
+        Stores stores, Function <String, String> extensions, int capacity)
+    {
+        super (capacity);
+        this.all = stores;
+        this.indexed = new Store [stores.all.size ()];
+        for (int index = 0; index < this.indexed.length; index++)
+        {
+            this.indexed [index] = stores.get (index);
+        }
+        this.resolver = extensions;
+        this.names = Lists.newArrayList ();
+        this.extensions = Lists.newArrayList ();
+        this.formatindexes = Maps.newHashMap ();
+        this.stores = new short [capacity];
+        this.unknowns = new String [capacity];
+        this.tickets = new int [capacity];
+        this.parents = new long [capacity];
+        this.formats = new int [capacity];
+        this.pages = new int [capacity];
+        this.renditions = new boolean [capacity];
+        this.sizes = new int [capacity];
+        this.modified = new long [capacity];
+        this.hashes = new String [capacity];
+    }
+
+    // the tables
+    private final Stores all;
+    private final Store [] indexed; // the stores, by index
+    private final Function <String, String> resolver;
+    private final List <String> names; // the formats' names, by index
+    private final List <Optional <String>> extensions; // by format's index
+    private final Map <String, Integer> formatindexes;
+    private String store; // the identifier of the last store looked for
+    private short index; // and its index
+
+    // the columns
+    final short [] stores; // -1 when there is no such store
+    final String [] unknowns; // the store's identifier read if so
+    final int [] tickets;
+    final long [] parents; // see Ids
+    final int [] formats;
+    final int [] pages;
+    final boolean [] renditions;
+    final int [] sizes;
+    final long [] modified;
+    final String [] hashes; // null when no hash
+}
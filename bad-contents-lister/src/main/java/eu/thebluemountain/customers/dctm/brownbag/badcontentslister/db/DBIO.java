@@ -16,6 +16,7 @@
 
 package eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -23,6 +24,7 @@ import java.util.NoSuchElementException;
 
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister
     .CloseableIterator;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Events;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.NanoTime;
 
 import com.google.common.base.Preconditions;
@@ -52,6 +54,159 @@ public final class DBIO
         T read (ResultSet rs) throws SQLException;
     }
 
+    /**
+     * The class of the batches of rows: column buffers filled by a
+     * {@link BatchReader} and reused from one batch to the next.
+     */
+    public static abstract class Batch
+    {
+        /**
+         * The max number of rows in the batch
+         */
+        public final int capacity;
+
+        /**
+         * @return the number of rows in the batch
+         */
+        public final int size () { return this.size; }
+
+        /**
+         * The constructor of batches
+         * @param capacity is the max number of rows in the batch
+         */
+        protected Batch (int capacity)
+        {
+            Preconditions.checkArgument (
+                0 < capacity, "bad capacity: %s", capacity);
+            this.capacity = capacity;
+        }
+        private int size;
+    }
+
+    /**
+     * The interface defines the requirements for classes that copy rows of
+     * data into the columns of a batch.
+     *
+     * <p>Unlike a {@link Reader}, no object is expected to be created for
+     * each row: the values are copied into (primitive) columns, objects
+     * being created later on for the rows that require these</p>
+     *
+     * @param <B> is the type of batch to fill
+     */
+    public interface BatchReader <B extends Batch>
+    {
+        /**
+         * The method that copies the current row into the batch
+         *
+         * @param rs carries actual data
+         * @param batch is the batch to fill
+         * @param row is the index of the row in the batch
+         * @throws SQLException can be thrown while accessing the current
+         * row of data from the result set
+         */
+        void read (ResultSet rs, B batch, int row) throws SQLException;
+    }
+
+    /**
+     * The iterator that fills the same batch with the next rows each time
+     *
+     * @param <B> is the type of batch
+     */
+    private static final class BatchIterator <B extends Batch>
+        implements CloseableIterator <B>
+    {
+        @Override
+        public void close () throws IllegalStateException
+        {
+            this.done = true;
+            this.filled = false;
+            try
+            {
+                this.rs.close ();
+                this.stmt.close ();
+            }
+            catch (SQLException e)
+            {
+                throw new IllegalStateException (e);
+            }
+        }
+
+        @Override
+        public boolean hasNext () throws IllegalStateException
+        {
+            if ((! this.filled) && (! this.done))
+            {
+                fill ();
+            }
+            return this.filled;
+        }
+
+        /**
+         * The method that returns the next batch: the same batch instance,
+         * filled with the next rows. The rows of the previous batch are
+         * then lost.
+         *
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public B next () throws NoSuchElementException, IllegalStateException
+        {
+            if (! hasNext ())
+            {
+                throw new NoSuchElementException ();
+            }
+            this.filled = false;
+            return this.batch;
+        }
+
+        @Override
+        public void remove ()
+        {
+            throw new UnsupportedOperationException (
+                "cannot remove from batch iterator");
+        }
+
+        private void fill () throws IllegalStateException
+        {
+            final Events.Span span = Events.get ().begin (Events.Kind.FETCH);
+            int row = 0;
+            try
+            {
+                while ((row < this.batch.capacity) && (this.rs.next ()))
+                {
+                    this.convert.read (this.rs, this.batch, row);
+                    row++;
+                }
+            }
+            catch (SQLException e)
+            {
+                span.commit (null, 0, null, "error", row);
+                throw new IllegalStateException (e);
+            }
+            span.commit (null, 0, null, "batch", row);
+            // a partial batch is the last one
+            this.done = (row < this.batch.capacity);
+            ((Batch) this.batch).size = row;
+            this.filled = (0 < row);
+        }
+
+        private BatchIterator (
+            Statement stmt, ResultSet rs, B batch,
+            BatchReader <? super B> convert)
+        {
+            this.stmt = stmt;
+            this.rs = rs;
+            this.batch = batch;
+            this.convert = convert;
+        }
+        private final Statement stmt;
+        private final ResultSet rs;
+        private final B batch;
+        private final BatchReader <? super B> convert;
+        private boolean filled; // whether the batch holds unread rows
+        private boolean done; // whether the result set is exhausted
+    }
+
     /**
      * The actual class that behaves like an iterator of T and that can
      * be closed ... backed by a SQL's result set.
@@ -144,13 +299,30 @@ public final class DBIO
          */
         private boolean fetchHasNext () throws IllegalStateException
         {
+            // the driver reads rows by chunks of the fetch size: the slow
+            // calls are the ones waiting for the next chunk, the only ones
+            // timed so that there is one event per chunk rather than per row
+            Events.Span span = Events.NONE;
             try
             {
-                return this.rs.next ();
+                if (0 == this.chunk)
+                {
+                    this.chunk = Math.max (1, this.rs.getFetchSize ());
+                }
+                if (0 == (this.fetched % this.chunk))
+                {
+                    span = Events.get ().begin (Events.Kind.FETCH);
+                }
+                final boolean next = this.rs.next ();
+                if (next) this.fetched++;
+                span.commit (
+                    null, 0, null, next ? "rows" : "end", next ? this.chunk : 0);
+                return next;
             }
             catch (SQLException e)
             {
                 //getLogger ().error ("SQLException", e);
+                span.commit (null, 0, null, "error", 0L);
                 throw new IllegalStateException (e);
             }
         }
@@ -185,6 +357,8 @@ public final class DBIO
             this.hasNext = null;
         }
         private Boolean hasNext;
+        private int chunk; // the rows fetched at once; 0 until known
+        private long fetched; // the rows fetched so far
         private final ResultSet rs;
         private final Reader <? extends T> convert;
         private final Statement stmt;
@@ -251,4 +425,100 @@ public final class DBIO
             throw new IllegalStateException (e);
         }
     }
+
+    /**
+     * The method that creates an iterator over T in the docbase, from a
+     * query with parameters.
+     *
+     * <p>Unlike {@link #createIterator(JDBCConnection, String, Reader)}, the
+     * time spent executing the query is not reported: the method is
+     * expected to be invoked repeatedly, such as when reading pages</p>
+     * @param jdbc provides access to the database
+     * @param sql is the SQL command to execute
+     * @param params carries the values of the command's parameters
+     * @param convert is the reader that performs the conversion
+     * @param <T> is the type of object to iterate over
+     * @return the matching iterator
+     */
+    public static <T> CloseableIterator <T> createIterator (
+        JDBCConnection jdbc, String sql, Object [] params,
+        Reader <? extends T> convert)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        Preconditions.checkNotNull (sql, "null SQL query supplied");
+        Preconditions.checkNotNull (params, "null parameters supplied");
+        Preconditions.checkNotNull (convert, "null converter supplied");
+        try
+        {
+            PreparedStatement stmt = jdbc.connection.prepareStatement (
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try
+            {
+                for (int index = 0; index < params.length; index++)
+                {
+                    stmt.setObject (index + 1, params [index]);
+                }
+                ResultSet rs = stmt.executeQuery ();
+                return new CloseableRSIteratorImpl <> (stmt, rs, convert);
+            }
+            catch (SQLException e)
+            {
+                stmt.close ();
+                throw new IllegalStateException (e);
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    /**
+     * The method that creates an iterator over batches of rows in the
+     * docbase.
+     *
+     * <p>The iterator returns the same batch each time, filled with the
+     * next rows: a batch is expected to be consumed before moving to the
+     * next one</p>
+     * @param jdbc provides access to the database
+     * @param sql is the SQL command to execute
+     * @param batch is the batch to fill
+     * @param convert copies rows into the batch
+     * @param <B> is the type of batch
+     * @return the matching iterator
+     */
+    public static <B extends Batch> CloseableIterator <B> createIterator (
+        JDBCConnection jdbc, String sql, B batch,
+        BatchReader <? super B> convert)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        Preconditions.checkNotNull (sql, "null SQL query supplied");
+        Preconditions.checkNotNull (batch, "null batch supplied");
+        Preconditions.checkNotNull (convert, "null converter supplied");
+        try
+        {
+            Statement stmt = jdbc.connection.createStatement (
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try
+            {
+                stmt.setFetchSize (batch.capacity);
+                final long start = System.nanoTime ();
+                ResultSet rs = stmt.executeQuery (sql);
+                final long elapsed = System.nanoTime () - start;
+                System.out.println (
+                    "spent " + NanoTime.humanString (elapsed) +
+                        " to execute: " + sql);
+                return new BatchIterator <> (stmt, rs, batch, convert);
+            }
+            catch (SQLException e)
+            {
+                stmt.close ();
+                throw new IllegalStateException (e);
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+    }
 }
@@ -20,10 +20,15 @@ import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Store;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.CloseableIterator;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -32,10 +37,18 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Checkpoint;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Content;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.DecoratedContent;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.ExtensionResolver;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Ids;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Manifest;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.NanoTime;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Parent;
 import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.Stores;
 
@@ -54,18 +67,159 @@ public final class DCReader
      *  <li>d.r_object_type: the object's type name</li>
      *  <li>d.i_has_folder: indicate if it's current if greater than 0</li>
      * </ul>
+     * The content's hash (r_content_hash) is retrieved as well, of use when
+     * verifying the files' digest.
      * </p>
      */
     private static final String SQL = "SELECT " +
         " s.storage_id, s.data_ticket, r.parent_id, s.full_format, " +
         " r.page, s.rendition, s.content_size, s.set_time, " +
-        " d.object_name, d.r_object_type, d.i_has_folder " +
+        " d.object_name, d.r_object_type, d.i_has_folder, " +
+        " s.r_content_hash " +
         "FROM dmr_content_s s " +
         " INNER JOIN dmr_content_r r ON (r.r_object_id = s.r_object_id) " +
         " INNER JOIN dm_sysobject_s d ON (r.parent_id = d.r_object_id) " +
         "WHERE s.storage_id != '0000000000000000' " +
         "ORDER BY s.storage_id, s.data_ticket";
 
+    /**
+     * The method that retrieves contents and related parent's meta data,
+     * including contents with no parent.
+     *
+     * <p>The parent's columns are then null</p>
+     */
+    private static final String PARENTLESS_SQL = "SELECT " +
+        " s.storage_id, s.data_ticket, r.parent_id, s.full_format, " +
+        " r.page, s.rendition, s.content_size, s.set_time, " +
+        " d.object_name, d.r_object_type, d.i_has_folder, " +
+        " s.r_content_hash " +
+        "FROM dmr_content_s s " +
+        " LEFT OUTER JOIN dmr_content_r r " +
+        "  ON (r.r_object_id = s.r_object_id) " +
+        " LEFT OUTER JOIN dm_sysobject_s d " +
+        "  ON (r.parent_id = d.r_object_id) " +
+        "WHERE s.storage_id != '0000000000000000' " +
+        "ORDER BY s.storage_id, s.data_ticket";
+
+    /**
+     * The method that retrieves contents without their parent's meta data:
+     * the lean rows of a two-phase scan.
+     *
+     * <p>Only the contents whose parent exists are retrieved, as with
+     * {@link #SQL}, the parent's columns not being shipped though: the
+     * meta data of the parents of the contents that fail are looked for
+     * afterwards, see {@link #parents(JDBCConnection, Collection)}</p>
+     */
+    private static final String LEAN_SQL = "SELECT " +
+        " s.storage_id, s.data_ticket, r.parent_id, s.full_format, " +
+        " r.page, s.rendition, s.content_size, s.set_time, " +
+        " s.r_content_hash " +
+        "FROM dmr_content_s s " +
+        " INNER JOIN dmr_content_r r ON (r.r_object_id = s.r_object_id) " +
+        "WHERE s.storage_id != '0000000000000000' " +
+        "AND EXISTS (SELECT 1 FROM dm_sysobject_s d " +
+        " WHERE d.r_object_id = r.parent_id) " +
+        "ORDER BY s.storage_id, s.data_ticket";
+
+    /**
+     * The method that retrieves contents without their parent's meta data,
+     * including contents with no parent.
+     */
+    private static final String LEAN_PARENTLESS_SQL = "SELECT " +
+        " s.storage_id, s.data_ticket, r.parent_id, s.full_format, " +
+        " r.page, s.rendition, s.content_size, s.set_time, " +
+        " s.r_content_hash " +
+        "FROM dmr_content_s s " +
+        " LEFT OUTER JOIN dmr_content_r r " +
+        "  ON (r.r_object_id = s.r_object_id) " +
+        "WHERE s.storage_id != '0000000000000000' " +
+        "ORDER BY s.storage_id, s.data_ticket";
+
+    /**
+     * The method that returns the query reading all contents
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param lean indicates whether to leave out the parent's meta data
+     * @return the matching query
+     */
+    private static String sqlOf (boolean parentless, boolean lean)
+    {
+        if (lean)
+        {
+            return parentless ? LEAN_PARENTLESS_SQL : LEAN_SQL;
+        }
+        return parentless ? PARENTLESS_SQL : SQL;
+    }
+
+    /**
+     * The number of contents to read in each page
+     */
+    private static final int PAGE = 10000;
+
+    /**
+     * The condition on the contents' key that reads a page
+     */
+    private static final String AFTER = "AND ((s.storage_id > ?) OR " +
+        "((s.storage_id = ?) AND (s.data_ticket > ?))) ";
+
+    /**
+     * The method that returns the query reading a page of contents after a
+     * given key (store and ticket).
+     *
+     * <p>Pages end with all the contents sharing the last key (TOP WITH
+     * TIES) so that the next page can start right after that key</p>
+     * @param sql is the query reading all contents
+     * @return the matching query, expecting the page's size then the key's
+     * store (twice) and ticket as parameters
+     */
+    private static String pageOf (String sql)
+    {
+        return "SELECT TOP (?) WITH TIES" +
+            where (sql, AFTER).substring ("SELECT".length ());
+    }
+
+    /**
+     * The method that adds a condition to a query reading contents
+     * @param sql is the query reading all contents
+     * @param condition is the condition, starting with AND
+     * @return the matching query
+     */
+    private static String where (String sql, String condition)
+    {
+        final int order = sql.lastIndexOf ("ORDER BY");
+        return sql.substring (0, order) + condition + sql.substring (order);
+    }
+
+    /**
+     * The condition that reads the contents set after a time or in a slice
+     */
+    private static final String DELTA = "AND ((s.set_time > ?) OR " +
+        "(ABS(s.data_ticket % ?) = ?)) ";
+
+    /**
+     * The max number of tickets to look for with a single query
+     */
+    private static final int BATCH = 500;
+
+    /**
+     * The method that returns the query reading the contents matching
+     * tickets of a store
+     * @param sql is the query reading all contents
+     * @param count is the number of tickets
+     * @return the matching query, expecting the store and the tickets as
+     * parameters
+     */
+    private static String keysOf (String sql, int count)
+    {
+        StringBuilder sb = new StringBuilder (
+            "AND (s.storage_id = ?) AND s.data_ticket IN (?");
+        for (int index = 1; index < count; index++)
+        {
+            sb.append (", ?");
+        }
+        return where (sql, sb.append (") ").toString ());
+    }
+
     /**
      * The method returns the function which, given a format's name,
      * returns the format's extension.
@@ -111,10 +265,13 @@ public final class DCReader
         @Override
         public DecoratedContent read (ResultSet rs) throws SQLException
         {
-            // the content ...
-            final String store = rs.getString (1);
+            // the content ... sharing the store's identifier
+            final String read = rs.getString (1);
+            final int index = this.storeOf (read);
+            final String store = (-1 == index) ? read : this.ids [index];
             final int ticket = rs.getInt (2);
-            final String id = rs.getString (3);
+            final String id = MoreObjects.firstNonNull (
+                rs.getString (3), Parent.NONE.id);
             final String format = rs.getString (4);
             final int page = rs.getInt (5);
             final boolean rendition = (0 < rs.getInt (6));
@@ -125,34 +282,91 @@ public final class DCReader
             // figure whether we need the extension ?
             final Optional <String> extension =
                 this.extension.resolve (store, format);
+            // empty strings are stored as a single space
+            final Optional <String> hash = Optional.fromNullable (
+                Strings.emptyToNull (Strings.nullToEmpty (
+                    rs.getString (this.lean ? 9 : 12)).trim ()));
             final Content content = Content.create (
-                store, ticket, id, rendition,
-                format, page, extension, size, dt);
+                store, index, ticket, id, rendition,
+                format, page, extension, size, dt, hash);
+            if (this.lean)
+            {
+                // the parent's meta data is looked for on failures only
+                return DecoratedContent.create (content,
+                    Parent.NONE.id.equals (id) ? Parent.NONE :
+                        Parent.create (id, "", "", false));
+            }
 
-            // now, the parent
+            // now, the parent ... if any
+            final String type = rs.getString (10);
+            if (null == type)
+            {
+                return DecoratedContent.create (content,
+                    Parent.NONE.id.equals (id) ? Parent.NONE :
+                        Parent.create (id, "", "", false));
+            }
             final String name = rs.getString (9);
-            final String type = rs.getString (10).intern ();
             final boolean current = (0 < rs.getInt (11));
-            final Parent parent = Parent.create (id, name, type, current);
+            final Parent parent =
+                Parent.create (id, name, type.intern (), current);
             // OK, that's it
             return DecoratedContent.create (content, parent);
         }
-        private DCReaderImpl (ExtensionResolver extension)
+        /**
+         * The method that returns the index of the store matching the
+         * identifier read.
+         *
+         * <p>Contents are read in store's order: the store is mostly the
+         * same as before, so that it is looked up once per store. Partitions
+         * are read concurrently with the same reader: the last store is a
+         * single volatile index</p>
+         * @param id is the identifier read
+         * @return the store's index; -1 if there is no such store
+         */
+        private int storeOf (String id)
         {
+            final int last = this.last;
+            if ((-1 != last) && (this.ids [last].equals (id)))
+            {
+                return last;
+            }
+            final int index = this.stores.indexOf (id);
+            if (-1 != index)
+            {
+                this.last = index;
+            }
+            return index;
+        }
+
+        private DCReaderImpl (
+            Stores stores, ExtensionResolver extension, boolean lean)
+        {
+            this.stores = stores;
             this.extension = extension;
+            this.lean = lean;
+            this.ids = new String [stores.all.size ()];
+            for (int index = 0; index < this.ids.length; index++)
+            {
+                this.ids [index] = stores.get (index).id;
+            }
+            this.last = -1;
         }
+        private final Stores stores;
+        private final String [] ids; // the stores' identifiers, by index
+        private volatile int last; // the index of the last store read
         private final ExtensionResolver extension;
+        private final boolean lean; // whether rows carry no parent's data
     }
 
     /**
-     * The method that builds the iterator to examine all contents and related
-     * parent meta data.
+     * The method that returns the reader converting rows into contents
      * @param jdbc provides access to the database
      * @param stores carries the stores
-     * @return the matching iterator
+     * @param lean indicates whether rows carry no parent's meta data
+     * @return the matching reader
      */
-    public static CloseableIterator<DecoratedContent> reader (
-        JDBCConnection jdbc, Stores stores)
+    private static DBIO.Reader <DecoratedContent> converter (
+        JDBCConnection jdbc, Stores stores, boolean lean)
     {
         // manages the extensions: it will be added to content only
         // if from store with extension and a format with extension
@@ -161,9 +375,564 @@ public final class DCReader
                 Iterables.filter (stores.all, Store.EXTENSION), Store.ID));
         final ExtensionResolver extension =
             ExtensionResolver.create (accept, makeExtensions (jdbc));
+        return new DCReaderImpl (stores, extension, lean);
+    }
+
+    /**
+     * The method that builds the iterator to examine all contents and related
+     * parent meta data.
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> reader (
+        JDBCConnection jdbc, Stores stores)
+    {
+        return reader (jdbc, stores, false);
+    }
+
+    /**
+     * The method that builds the iterator to examine all contents and related
+     * parent meta data.
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> reader (
+        JDBCConnection jdbc, Stores stores, boolean parentless)
+    {
+        return reader (jdbc, stores, parentless, false);
+    }
+
+    /**
+     * The method that builds the iterator to examine all contents and, if
+     * not lean, related parent meta data.
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param lean indicates whether to leave out the parent's meta data:
+     *             contents then carry a parent with an identifier only
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> reader (
+        JDBCConnection jdbc, Stores stores, boolean parentless, boolean lean)
+    {
+        return DBIO.createIterator (jdbc, sqlOf (parentless, lean),
+            converter (jdbc, stores, lean));
+    }
+
+    /**
+     * The encoded identifier of the parent of contents with no parent
+     */
+    private static final long NONE = Ids.parse (Parent.NONE.id);
+
+    /**
+     * The class that copies lean rows into batches of contents
+     */
+    private static final class ContentBatchReader
+        implements DBIO.BatchReader <ContentBatch>
+    {
+        @Override
+        public void read (ResultSet rs, ContentBatch batch, int row)
+            throws SQLException
+        {
+            final String store = rs.getString (1);
+            batch.stores [row] = batch.storeOf (store);
+            // kept as read to report the content when there is no such store
+            batch.unknowns [row] = (-1 == batch.stores [row]) ? store : null;
+            batch.tickets [row] = rs.getInt (2);
+            final String parent = rs.getString (3);
+            batch.parents [row] = (null == parent) ? NONE : Ids.parse (parent);
+            batch.formats [row] = batch.formatOf (rs.getString (4));
+            batch.pages [row] = rs.getInt (5);
+            batch.renditions [row] = (0 < rs.getInt (6));
+            batch.sizes [row] = rs.getInt (7);
+            batch.modified [row] = rs.getTimestamp (8).getTime ();
+            // empty strings are stored as a single space
+            final String hash = rs.getString (9);
+            batch.hashes [row] = ((null == hash) || (hash.trim ().isEmpty ())) ?
+                null : hash.trim ();
+        }
+    }
+
+    /**
+     * The method that builds the iterator to examine all contents by
+     * batches of rows, with no parent's meta data.
+     *
+     * <p>The iterator returns the same batch each time, filled with the
+     * next rows</p>
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param rows is the number of rows in each batch
+     * @return the matching iterator
+     */
+    public static CloseableIterator <ContentBatch> batches (
+        JDBCConnection jdbc, Stores stores, boolean parentless, int rows)
+    {
+        return DBIO.createIterator (jdbc, sqlOf (parentless, true),
+            ContentBatch.create (stores, makeExtensions (jdbc), rows),
+            new ContentBatchReader ());
+    }
+
+    /**
+     * The iterator that reads contents page by page
+     */
+    private static final class PagedIterator
+        extends AbstractIterator <DecoratedContent>
+        implements CloseableIterator <DecoratedContent>
+    {
+        @Override
+        protected DecoratedContent computeNext ()
+        {
+            while (true)
+            {
+                if (null == this.page)
+                {
+                    if (this.done) return endOfData ();
+                    this.page = DBIO.createIterator (this.jdbc, this.sql,
+                        new Object [] { PAGE, this.store, this.store,
+                            this.ticket }, this.convert);
+                    this.rows = 0;
+                }
+                if (this.page.hasNext ())
+                {
+                    final DecoratedContent dc = this.page.next ();
+                    this.rows++;
+                    this.store = dc.content.store;
+                    this.ticket = dc.content.ticket;
+                    return dc;
+                }
+                this.page.close ();
+                this.page = null;
+                // a short page is the last one
+                this.done = (this.rows < PAGE);
+            }
+        }
+
+        @Override
+        public void close () throws IllegalStateException
+        {
+            if (null != this.page)
+            {
+                this.page.close ();
+                this.page = null;
+            }
+            this.done = true;
+        }
+
+        private PagedIterator (
+            JDBCConnection jdbc, String sql,
+            DBIO.Reader <DecoratedContent> convert, String store, int ticket)
+        {
+            this.jdbc = jdbc;
+            this.sql = sql;
+            this.convert = convert;
+            this.store = store;
+            this.ticket = ticket;
+        }
+        private final JDBCConnection jdbc;
+        private final String sql;
+        private final DBIO.Reader <DecoratedContent> convert;
+        private String store; // the key of the last content read
+        private int ticket;
+        private CloseableIterator <DecoratedContent> page;
+        private int rows; // the number of contents read in the page
+        private boolean done;
+    }
+
+    /**
+     * The iterator that reads the contents of a delta run: the contents
+     * covered by the manifest then, store by store, the contents that
+     * failed and that are not covered
+     */
+    private static final class DeltaIterator
+        extends AbstractIterator <DecoratedContent>
+        implements CloseableIterator <DecoratedContent>
+    {
+        @Override
+        protected DecoratedContent computeNext ()
+        {
+            while (true)
+            {
+                if (null == this.part)
+                {
+                    this.part = nextPart ();
+                    if (null == this.part) return endOfData ();
+                }
+                while (this.part.hasNext ())
+                {
+                    final DecoratedContent dc = this.part.next ();
+                    // already read by the delta query otherwise
+                    if ((this.delta) ||
+                        (! this.manifest.covers (dc.content)))
+                    {
+                        return dc;
+                    }
+                }
+                this.part.close ();
+                this.part = null;
+            }
+        }
+
+        /**
+         * @return the iterator over the next part; {@code null} if none
+         */
+        private CloseableIterator <DecoratedContent> nextPart ()
+        {
+            if (! this.started)
+            {
+                this.started = true;
+                this.delta = true;
+                final Timestamp watermark = new Timestamp (
+                    Math.max (0L, this.manifest.watermark));
+                return DBIO.createIterator (this.jdbc,
+                    where (this.sql, DELTA), new Object [] {
+                        watermark, this.manifest.slices, this.manifest.slice
+                    }, this.convert);
+            }
+            this.delta = false;
+            while ((null == this.current) ||
+                (this.offset == this.current.size))
+            {
+                if (! this.stores.hasNext ()) return null;
+                this.current = this.stores.next ();
+                this.offset = 0;
+            }
+            final int count = Math.min (
+                BATCH, this.current.size - this.offset);
+            Object [] params = new Object [count + 1];
+            params [0] = this.current.store;
+            for (int index = 0; index < count; index++)
+            {
+                params [index + 1] = this.current.ticket (this.offset + index);
+            }
+            this.offset += count;
+            return DBIO.createIterator (
+                this.jdbc, keysOf (this.sql, count), params, this.convert);
+        }
+
+        @Override
+        public void close () throws IllegalStateException
+        {
+            if (null != this.part)
+            {
+                this.part.close ();
+                this.part = null;
+            }
+            this.started = true;
+            this.current = null;
+            this.stores = Collections.emptyIterator ();
+        }
+
+        private DeltaIterator (
+            JDBCConnection jdbc, String sql,
+            DBIO.Reader <DecoratedContent> convert, Manifest manifest)
+        {
+            this.jdbc = jdbc;
+            this.sql = sql;
+            this.convert = convert;
+            this.manifest = manifest;
+            this.stores = manifest.failures.values ().iterator ();
+        }
+        private final JDBCConnection jdbc;
+        private final String sql;
+        private final DBIO.Reader <DecoratedContent> convert;
+        private final Manifest manifest;
+        private Iterator <Manifest.Failures> stores;
+        private Manifest.Failures current; // the store being read
+        private int offset; // the index of the next ticket to read
+        private CloseableIterator <DecoratedContent> part;
+        private boolean started;
+        private boolean delta; // whether reading the delta query
+    }
+
+    /**
+     * The method that builds the iterator to examine the contents that
+     * may have changed since the previous run and related parent meta data.
+     *
+     * <p>It reads the contents set after the manifest's watermark or in the
+     * manifest's slice then the contents that failed in the previous
+     * run, looking for these by batches of tickets</p>
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param lean indicates whether to leave out the parent's meta data
+     * @param manifest carries the outcome of the previous run
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> delta (
+        JDBCConnection jdbc, Stores stores, boolean parentless,
+        boolean lean, Manifest manifest)
+    {
+        final String sql = sqlOf (parentless, lean);
+        System.out.println ("reading contents after " + manifest +
+            " with: " + where (sql, DELTA));
+        return new DeltaIterator (
+            jdbc, sql, converter (jdbc, stores, lean), manifest);
+    }
+
+    /**
+     * The method that builds the iterator to examine the contents and
+     * related parent meta data, reading them page by page.
+     *
+     * <p>Each page is read with a query of its own, starting after the key
+     * (store and ticket) of the last content read: the query remains short
+     * and reading can start after any key</p>
+     * @param jdbc provides access to the database
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param lean indicates whether to leave out the parent's meta data
+     * @param after is the checkpoint whose contents are already checked,
+     *              if any
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> paged (
+        JDBCConnection jdbc, Stores stores, boolean parentless,
+        boolean lean, Optional <Checkpoint> after)
+    {
+        final String sql = pageOf (sqlOf (parentless, lean));
+        System.out.println ("reading pages of " + PAGE + " with: " + sql);
         final DBIO.Reader <DecoratedContent> convert =
-            new DCReaderImpl (extension);
-        return DBIO.createIterator (jdbc, SQL, convert);
+            converter (jdbc, stores, lean);
+        // with no checkpoint, starts before any store
+        return after.isPresent () ?
+            new PagedIterator (jdbc, sql, convert,
+                after.get ().store, after.get ().ticket) :
+            new PagedIterator (jdbc, sql, convert,
+                Parent.NONE.id, Integer.MIN_VALUE);
+    }
+
+    /**
+     * The query that returns the range of tickets and the number of
+     * contents of each store
+     */
+    private static final String RANGES_SQL = "SELECT " +
+        " s.storage_id, MIN(s.data_ticket), MAX(s.data_ticket), COUNT(*) " +
+        "FROM dmr_content_s s " +
+        "WHERE s.storage_id != '0000000000000000' " +
+        "GROUP BY s.storage_id " +
+        "ORDER BY s.storage_id";
+
+    /**
+     * The query that returns the database's time, both local and UTC
+     */
+    private static final String NOW_SQL =
+        "SELECT CURRENT_TIMESTAMP, GETUTCDATE()";
+
+    /**
+     * The method that returns the database's time, of use as the watermark
+     * of delta runs.
+     *
+     * <p>Set times may be recorded in the server's local time or in UTC:
+     * the earlier of both is returned so that the watermark is never after
+     * the time it is read at</p>
+     * @param jdbc provides access to the database
+     * @return the time, in milliseconds, as set times are read
+     */
+    public static long now (JDBCConnection jdbc)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        try
+        {
+            try (Statement stmt = jdbc.connection.createStatement ();
+                ResultSet rs = stmt.executeQuery (NOW_SQL))
+            {
+                Preconditions.checkState (rs.next (), "no time read");
+                return Math.min (rs.getTimestamp (1).getTime (),
+                    rs.getTimestamp (2).getTime ());
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    /**
+     * The query that returns the number of contents of each store.
+     *
+     * <p>Contents are counted with no join: the count is an estimate of
+     * the contents read, cheap to compute</p>
+     */
+    private static final String COUNTS_SQL = "SELECT " +
+        " s.storage_id, COUNT(*) " +
+        "FROM dmr_content_s s " +
+        "WHERE s.storage_id != '0000000000000000' " +
+        "GROUP BY s.storage_id";
+
+    /**
+     * The method that counts the contents of each store
+     * @param stmt is the statement to run the query with: another thread
+     *             may cancel it
+     * @return the number of contents, by store identifier
+     */
+    public static ImmutableMap <String, Long> counts (Statement stmt)
+    {
+        Preconditions.checkNotNull (stmt, "null statement supplied");
+        ImmutableMap.Builder <String, Long> counts = ImmutableMap.builder ();
+        try
+        {
+            try (ResultSet rs = stmt.executeQuery (COUNTS_SQL))
+            {
+                while (rs.next ())
+                {
+                    counts.put (rs.getString (1), rs.getLong (2));
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+        return counts.build ();
+    }
+
+    /**
+     * The condition that reads a partition: a range of tickets of a store
+     */
+    private static final String PARTITION = "AND (s.storage_id = ?) AND " +
+        "(s.data_ticket BETWEEN ? AND ?) ";
+
+    /**
+     * The method that splits the contents into partitions: ranges of
+     * tickets of each store, of roughly the same number of contents
+     * assuming tickets are evenly spread over the range.
+     * @param jdbc provides access to the database
+     * @param rows is the expected number of contents of a partition
+     * @return the partitions, in key order
+     */
+    private static List <PartitionedIterator.Partition> partitions (
+        JDBCConnection jdbc, long rows)
+    {
+        List <PartitionedIterator.Partition> partitions =
+            Lists.newArrayList ();
+        try
+        {
+            try (Statement stmt = jdbc.connection.createStatement (
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ResultSet rs = stmt.executeQuery (RANGES_SQL))
+            {
+                while (rs.next ())
+                {
+                    final String store = rs.getString (1);
+                    final long low = rs.getInt (2);
+                    final long high = rs.getInt (3);
+                    final long count = rs.getLong (4);
+                    final long parts = Math.max (1L, (count + rows - 1) / rows);
+                    final long width = ((high - low) / parts) + 1L;
+                    for (long start = low; start <= high; start += width)
+                    {
+                        partitions.add (new PartitionedIterator.Partition (
+                            store, (int) start,
+                            (int) Math.min (high, start + width - 1L)));
+                    }
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+        return partitions;
+    }
+
+    /**
+     * The method that builds the iterator to examine all contents and related
+     * parent meta data, reading partitions of the contents concurrently.
+     *
+     * <p>Partitions are ranges of tickets of a store, read each with a
+     * query of its own on one of the connections: contents are returned in
+     * the same order as with a single query</p>
+     * @param connections carries the connections to read with; the first
+     *                    one is used to figure out the partitions
+     * @param stores carries the stores
+     * @param parentless indicates whether to include contents with no
+     *                   parent (or whose parent does not exist)
+     * @param lean indicates whether to leave out the parent's meta data
+     * @param rows is the expected number of contents of a partition
+     * @return the matching iterator
+     */
+    public static CloseableIterator<DecoratedContent> partitioned (
+        List <JDBCConnection> connections, Stores stores, boolean parentless,
+        boolean lean, long rows)
+    {
+        Preconditions.checkArgument (
+            ! connections.isEmpty (), "no connection supplied");
+        Preconditions.checkArgument (0L < rows, "bad rows: %s", rows);
+        final JDBCConnection jdbc = connections.get (0);
+        final long start = System.nanoTime ();
+        final List <PartitionedIterator.Partition> partitions =
+            partitions (jdbc, rows);
+        final String sql = where (sqlOf (parentless, lean), PARTITION);
+        System.out.println ("spent " + NanoTime.humanString (
+            System.nanoTime () - start) + " to split contents into " +
+            partitions.size () + " partitions read on " +
+            connections.size () + " connections with: " + sql);
+        return PartitionedIterator.create (
+            connections, sql, converter (jdbc, stores, lean), partitions);
+    }
+
+    /**
+     * The query that retrieves the meta data of parents, expecting the
+     * parents' identifiers in the IN list
+     */
+    private static final String PARENTS_SQL = "SELECT " +
+        " d.r_object_id, d.object_name, d.r_object_type, d.i_has_folder " +
+        "FROM dm_sysobject_s d " +
+        "WHERE d.r_object_id IN (";
+
+    /**
+     * The method that retrieves the meta data of parents, by batches of
+     * identifiers.
+     *
+     * <p>This is the second phase of a lean scan: only the parents of the
+     * contents that fail are looked for</p>
+     * @param jdbc provides access to the database
+     * @param ids carries the parents' identifiers
+     * @return the parents found, by identifier
+     */
+    public static ImmutableMap <String, Parent> parents (
+        JDBCConnection jdbc, Collection <String> ids)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        Preconditions.checkNotNull (ids, "null ids supplied");
+        ImmutableMap.Builder <String, Parent> parents = ImmutableMap.builder ();
+        for (List <String> batch :
+            Iterables.partition (ImmutableSet.copyOf (ids), BATCH))
+        {
+            StringBuilder sql = new StringBuilder (PARENTS_SQL).append ('?');
+            for (int index = 1; index < batch.size (); index++)
+            {
+                sql.append (", ?");
+            }
+            try (CloseableIterator <Parent> it = DBIO.createIterator (
+                jdbc, sql.append (')').toString (), batch.toArray (),
+                new DBIO.Reader <Parent> ()
+                {
+                    @Override
+                    public Parent read (ResultSet rs) throws SQLException
+                    {
+                        return Parent.create (rs.getString (1),
+                            rs.getString (2), rs.getString (3).intern (),
+                            0 < rs.getInt (4));
+                    }
+                }))
+            {
+                while (it.hasNext ())
+                {
+                    final Parent parent = it.next ();
+                    parents.put (parent.id, parent);
+                }
+            }
+        }
+        return parents.build ();
     }
 
     private DCReader () { super(); }
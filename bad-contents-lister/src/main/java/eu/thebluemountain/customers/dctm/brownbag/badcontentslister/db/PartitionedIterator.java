@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister
+    .CloseableIterator;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister
+    .DecoratedContent;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The iterator that reads partitions of the contents concurrently, each
+ * on a connection of its own.
+ *
+ * <p>Partitions are ranges of tickets of a store, in key order: reading
+ * them one after the other returns the contents in the same order as a
+ * single query would. Each partition is read in full by a task, its query
+ * being closed as soon as its rows are in memory; the iterator returns the
+ * partitions' rows in partitions' order.<br>
+ * Partitions are expected to be small: a few of them are read ahead for
+ * each connection, new ones being read as the older ones get drained. A
+ * slow partition then does not stall the others, and the rows in memory
+ * remain bounded.</p>
+ */
+final class PartitionedIterator
+    extends AbstractIterator <DecoratedContent>
+    implements CloseableIterator <DecoratedContent>
+{
+    /**
+     * The range of tickets of a store
+     */
+    static final class Partition
+    {
+        final String store;
+        final int low; // inclusive
+        final int high; // inclusive
+        Partition (String store, int low, int high)
+        {
+            this.store = store;
+            this.low = low;
+            this.high = high;
+        }
+    }
+
+    /**
+     * The number of partitions read ahead for each connection
+     */
+    private static final int AHEAD = 2;
+
+    /**
+     * The task that reads a partition
+     */
+    private final class Read implements Callable <List <DecoratedContent>>
+    {
+        @Override
+        public List <DecoratedContent> call () throws InterruptedException
+        {
+            final JDBCConnection jdbc =
+                PartitionedIterator.this.connections.take ();
+            try (CloseableIterator <DecoratedContent> it =
+                 DBIO.createIterator (jdbc, PartitionedIterator.this.sql,
+                     new Object [] {
+                         this.partition.store, this.partition.low,
+                         this.partition.high
+                     }, PartitionedIterator.this.convert))
+            {
+                final List <DecoratedContent> rows = Lists.newArrayList ();
+                while (it.hasNext ())
+                {
+                    rows.add (it.next ());
+                }
+                return rows;
+            }
+            finally
+            {
+                PartitionedIterator.this.connections.put (jdbc);
+            }
+        }
+
+        private Read (Partition partition)
+        {
+            this.partition = partition;
+        }
+        private final Partition partition;
+    }
+
+    @Override
+    protected DecoratedContent computeNext ()
+    {
+        while (! this.rows.hasNext ())
+        {
+            final Future <List <DecoratedContent>> read =
+                this.reads.pollFirst ();
+            if (null == read) return endOfData ();
+            // keeps reading ahead while the partition is drained
+            submit ();
+            try
+            {
+                this.rows = read.get ().iterator ();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread ().interrupt ();
+                throw new IllegalStateException (e);
+            }
+            catch (ExecutionException e)
+            {
+                throw Throwables.propagate (e.getCause ());
+            }
+        }
+        return this.rows.next ();
+    }
+
+    @Override
+    public void close () throws IllegalStateException
+    {
+        this.pool.shutdownNow ();
+        this.partitions = Lists.<Partition>newArrayList ().iterator ();
+        this.reads.clear ();
+        this.rows = Lists.<DecoratedContent>newArrayList ().iterator ();
+        try
+        {
+            // the connections are then no longer in use
+            this.pool.awaitTermination (1L, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+    /**
+     * The method that submits the reading of the next partition, if any
+     */
+    private void submit ()
+    {
+        if (this.partitions.hasNext ())
+        {
+            this.reads.addLast (
+                this.pool.submit (new Read (this.partitions.next ())));
+        }
+    }
+
+    /**
+     * The method that creates the iterator, starting reading partitions
+     * @param connections carries the connections to read with
+     * @param sql is the query reading a partition, expecting the store and
+     *            the low and high tickets as parameters
+     * @param convert converts rows into contents
+     * @param partitions carries the partitions, in key order
+     * @return the matching iterator
+     */
+    static PartitionedIterator create (
+        List <JDBCConnection> connections, String sql,
+        DBIO.Reader <DecoratedContent> convert, List <Partition> partitions)
+    {
+        final PartitionedIterator it = new PartitionedIterator (
+            connections, sql, convert, partitions);
+        for (int index = 0; index < connections.size () * AHEAD; index++)
+        {
+            it.submit ();
+        }
+        return it;
+    }
+
+    private PartitionedIterator (
+        List <JDBCConnection> connections, String sql,
+        DBIO.Reader <DecoratedContent> convert, List <Partition> partitions)
+    {
+        this.connections = new LinkedBlockingQueue <> (connections);
+        this.sql = sql;
+        this.convert = convert;
+        this.partitions = partitions.iterator ();
+        this.reads = new ArrayDeque <> ();
+        this.rows = Lists.<DecoratedContent>newArrayList ().iterator ();
+        this.pool = Executors.newFixedThreadPool (
+            connections.size (), new ThreadFactoryBuilder ().
+                setNameFormat ("reader-%d").setDaemon (true).build ());
+    }
+    private final BlockingQueue <JDBCConnection> connections;
+    private final String sql;
+    private final DBIO.Reader <DecoratedContent> convert;
+    private final ExecutorService pool;
+    private Iterator <Partition> partitions; // the ones not submitted yet
+    // the partitions being read, in partitions' order
+    private final Deque <Future <List <DecoratedContent>>> reads;
+    private Iterator <DecoratedContent> rows; // of the partition drained
+}
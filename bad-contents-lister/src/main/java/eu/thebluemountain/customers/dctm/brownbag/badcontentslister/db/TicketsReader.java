@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 thebluemountain@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.thebluemountain.customers.dctm.brownbag.badcontentslister.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.NanoTime;
+import eu.thebluemountain.customers.dctm.brownbag.badcontentslister.TicketSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The class that reads the tickets of all contents, by store.
+ *
+ * <p>Contents with no parent are read as well: their files are still
+ * referenced</p>
+ */
+public final class TicketsReader
+{
+    private static final String SQL = "SELECT " +
+        " s.storage_id, s.data_ticket " +
+        "FROM dmr_content_s s " +
+        "WHERE s.storage_id != '0000000000000000'";
+
+    /**
+     * The method that reads the tickets.
+     *
+     * <p>Rows are read straight from the result set into the tickets' sets:
+     * no object is created per row</p>
+     * @param jdbc provides access to the database
+     * @return the tickets by store identifier
+     */
+    public static ImmutableMap <String, TicketSet> read (JDBCConnection jdbc)
+    {
+        Preconditions.checkNotNull (jdbc, "null connection supplied");
+        try
+        {
+            try (Statement stmt = jdbc.connection.createStatement (
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+            {
+                stmt.setFetchSize (4096);
+                final long start = System.nanoTime ();
+                try (ResultSet rs = stmt.executeQuery (SQL))
+                {
+                    System.out.println (
+                        "spent " + NanoTime.humanString (
+                            System.nanoTime () - start) +
+                            " to execute: " + SQL);
+                    Map <String, TicketSet> tickets = Maps.newHashMap ();
+                    String store = null;
+                    TicketSet current = null;
+                    while (rs.next ())
+                    {
+                        final String id = rs.getString (1);
+                        if (! id.equals (store))
+                        {
+                            store = id;
+                            current = tickets.get (id);
+                            if (null == current)
+                            {
+                                current = TicketSet.create ();
+                                tickets.put (id, current);
+                            }
+                        }
+                        current.add (rs.getInt (2));
+                    }
+                    return ImmutableMap.copyOf (tickets);
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalStateException (e);
+        }
+    }
+
+    private TicketsReader () { super (); }
+}